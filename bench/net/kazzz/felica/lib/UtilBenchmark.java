@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Utilの16進数/2進数変換を以前の String.format版と比較するベンチマークを提供します
+ *
+ * <pre>
+ * ライブラリィには含めません。src と一緒にコンパイルしてmainを実行します
+ *   javac -d out src/net/kazzz/felica/lib/Util.java bench/net/kazzz/felica/lib/UtilBenchmark.java
+ *   java -cp out net.kazzz.felica.lib.UtilBenchmark
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/18
+ * @since Android API Level 4
+ *
+ */
+
+public final class UtilBenchmark {
+    private static final int FRAME_SIZE = 32;   // 典型的なコマンド/レスポンスの長さ
+    private static final int FRAMES = 1024;
+    private static final int ROUNDS = 200;
+
+    private UtilBenchmark() {}
+
+    /**
+     * 以前の実装 (1バイト毎に String.format)
+     */
+    static String legacyHexString(byte[] byteArray) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : byteArray) {
+            builder.append(String.format("%02x", b).toUpperCase());
+        }
+        return builder.toString();
+    }
+    /**
+     * 以前の実装 (1バイト毎に String.format + Integer.toBinaryString + replaceAll)
+     */
+    static String legacyBinString(byte[] byteArray) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : byteArray) {
+            builder.append(String.format("%8s"
+                    , Integer.toBinaryString(b & 0xFF)).replaceAll(" ", "0"));
+        }
+        return builder.toString();
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        byte[][] frames = new byte[FRAMES][FRAME_SIZE];
+        for ( byte[] f : frames ) {
+            random.nextBytes(f);
+        }
+
+        // 結果が以前の実装と一致することを確認する
+        for ( byte[] f : frames ) {
+            String hex = Util.getHexString(f);
+            if ( !hex.equals(legacyHexString(f))
+                    || !Util.getBinString(f).equals(legacyBinString(f))
+                    || !Arrays.equals(Util.fromHexString(hex), f)
+                    || !Arrays.equals(Util.fromHexString(hex.toLowerCase()), f)
+                    || !Arrays.equals(Util.fromBinString(Util.getBinString(f)), f) ) {
+                throw new IllegalStateException("result mismatch : " + legacyHexString(f));
+            }
+        }
+
+        for ( int pass = 0; pass < 2; pass++ ) { // 1回目はウォームアップ
+            boolean report = pass == 1;
+            long sink = 0;
+
+            long t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS; r++ )
+                for ( byte[] f : frames ) sink += legacyHexString(f).length();
+            report(report, "hex  legacy String.format", t);
+
+            t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS; r++ )
+                for ( byte[] f : frames ) sink += Util.getHexString(f).length();
+            report(report, "hex  Util.getHexString", t);
+
+            StringBuilder sb = new StringBuilder(FRAME_SIZE * 8);
+            t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS; r++ )
+                for ( byte[] f : frames ) {
+                    sb.setLength(0);
+                    sink += Util.appendHex(sb, f, 0, f.length).length();
+                }
+            report(report, "hex  Util.appendHex (reused builder)", t);
+
+            String[] hexes = new String[FRAMES];
+            for ( int i = 0; i < FRAMES; i++ ) hexes[i] = Util.getHexString(frames[i]);
+            byte[] decoded = new byte[FRAME_SIZE];
+            t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS; r++ )
+                for ( String h : hexes ) sink += Util.fromHexString(h, decoded, 0);
+            report(report, "hex  Util.fromHexString (into array)", t);
+
+            t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS / 10; r++ )
+                for ( byte[] f : frames ) sink += legacyBinString(f).length();
+            report(report, "bin  legacy String.format (1/10 rounds)", t);
+
+            t = System.nanoTime();
+            for ( int r = 0; r < ROUNDS / 10; r++ )
+                for ( byte[] f : frames ) sink += Util.getBinString(f).length();
+            report(report, "bin  Util.getBinString (1/10 rounds)", t);
+
+            if ( report ) System.out.println("(sink " + sink + ")");
+        }
+    }
+
+    private static void report(boolean report, String name, long start) {
+        if ( !report ) return;
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-42s %8.2f ms", name, elapsed / 1e6));
+    }
+}
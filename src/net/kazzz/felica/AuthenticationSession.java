@@ -0,0 +1,358 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_AUTHENTICATION1;
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_AUTHENTICATION2;
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_READ;
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_WRITE;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.kazzz.felica.IFeliCaAuthenticator.ITransactionCipher;
+import net.kazzz.felica.command.Authentication1Response;
+import net.kazzz.felica.command.Authentication2Response;
+import net.kazzz.felica.command.ReadResponse;
+import net.kazzz.felica.command.WriteResponse;
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.BlockListElement;
+import net.kazzz.felica.lib.FeliCaLib.CommandPacket;
+import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
+import net.kazzz.felica.lib.ICommandInterceptor;
+import net.kazzz.felica.lib.Util;
+import android.nfc.Tag;
+
+/**
+ * 相互認証済みのセッションを抽象化したクラスを提供します
+ *
+ * <pre>
+ * 一度の相互認証で複数のエリア/サービスを認証し、確立したトランザクション鍵を
+ * 以降の Read/Writeコマンドで使いまわします。(1タッチにつき認証は1回で済みます)
+ * Read/Writeのブロックリストは、認証時にセットしたサービスコードの並び順で
+ * サービスを指定します
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/12
+ * @since Android API Level 9
+ *
+ */
+
+public class AuthenticationSession {
+    protected final Tag nfcTag;
+    protected final IDm idm;
+    protected final int[] areaCodes;
+    protected final ServiceCode[] serviceCodes;
+    protected final ITransactionCipher cipher;
+    protected final IDm idt;
+    protected final byte[] pmi;
+    protected boolean valid;
+    TagSessionCache cache; // 発行元のタグのキャッシュ (書き込み時に破棄する)
+    TransactionContext transaction; // 発行元のタグで実行中のカード取引
+    ICommandInterceptor[] interceptors; // 発行元のタグに登録されたインタセプタ
+    /**
+     * コンストラクタ
+     */
+    protected AuthenticationSession(Tag nfcTag, IDm idm, int[] areaCodes
+            , ServiceCode[] serviceCodes, ITransactionCipher cipher, IDm idt, byte[] pmi) {
+        this.nfcTag = nfcTag;
+        this.idm = idm;
+        this.areaCodes = areaCodes;
+        this.serviceCodes = serviceCodes;
+        this.cipher = cipher;
+        this.idt = idt;
+        this.pmi = pmi;
+        this.valid = true;
+    }
+    /**
+     * 相互認証(Authentication1, Authentication2)を実行してセッションを開始します
+     *
+     * @param nfcTag NFCTagへの参照をセット
+     * @param idm 認証するカードのIDmをセット
+     * @param authenticator 暗号処理を行う認証器をセット
+     * @param areaCodes 認証するエリアコードの配列をセット
+     * @param serviceCodes 認証するサービスコードをセット
+     * @return AuthenticationSession 認証済みのセッションが戻ります
+     * @throws FeliCaException 認証に失敗した場合にスローされます
+     */
+    public static AuthenticationSession open(Tag nfcTag, IDm idm
+            , IFeliCaAuthenticator authenticator, int[] areaCodes
+            , ServiceCode... serviceCodes) throws FeliCaException {
+        return open(nfcTag, idm, null, authenticator, areaCodes, serviceCodes);
+    }
+    /**
+     * カード取引の期限と通信回数の上限の範囲で相互認証を実行してセッションを開始します
+     *
+     * @param nfcTag NFCTagへの参照をセット
+     * @param idm 認証するカードのIDmをセット
+     * @param context カード取引のコンテキストをセット (nullの場合は制限しません)
+     * @param authenticator 暗号処理を行う認証器をセット
+     * @param areaCodes 認証するエリアコードの配列をセット
+     * @param serviceCodes 認証するサービスコードをセット
+     * @return AuthenticationSession 認証済みのセッションが戻ります
+     * @throws FeliCaException 認証に失敗した場合にスローされます
+     */
+    public static AuthenticationSession open(Tag nfcTag, IDm idm, TransactionContext context
+            , IFeliCaAuthenticator authenticator, int[] areaCodes
+            , ServiceCode... serviceCodes) throws FeliCaException {
+        return open(nfcTag, idm, context, null, authenticator, areaCodes, serviceCodes);
+    }
+    /**
+     * タグ毎のインタセプタを呼び出しながら相互認証を実行してセッションを開始します
+     */
+    static AuthenticationSession open(Tag nfcTag, IDm idm, TransactionContext context
+            , ICommandInterceptor[] interceptors, IFeliCaAuthenticator authenticator
+            , int[] areaCodes, ServiceCode... serviceCodes) throws FeliCaException {
+        if ( nfcTag == null ) {
+            throw new FeliCaException("tagService is null. no authentication execution");
+        }
+        if ( idm == null ) {
+            throw new FeliCaException("IDm is null. execute polling before authentication");
+        }
+        if ( serviceCodes.length == 0 || serviceCodes.length > 16 ) {
+            throw new FeliCaException("number of service codes must be 1 to 16");
+        }
+        int[] services = new int[serviceCodes.length];
+        for ( int i = 0; i < serviceCodes.length; i++ ) {
+            services[i] = Util.getU16LE(serviceCodes[i].getBytes(), 0);
+        }
+
+        // Authentication1
+        byte[] m1c = authenticator.createChallenge(idm, areaCodes, services);
+        ByteBuffer b = ByteBuffer.allocate(2 + areaCodes.length * 2
+                + serviceCodes.length * 2 + m1c.length);
+        b.put((byte) areaCodes.length);                      // エリア数
+        for ( int areaCode : areaCodes ) {
+            b.put((byte) areaCode).put((byte) (areaCode >>> 8)); // エリアコード (little endian)
+        }
+        b.put((byte) serviceCodes.length);                   // サービス数
+        for ( ServiceCode s : serviceCodes ) {
+            b.put(s.getBytes());                             // サービスコード (little endian)
+        }
+        b.put(m1c);                                          // チャレンジ1A (M1c)
+        CommandPacket auth1 = new CommandPacket(COMMAND_AUTHENTICATION1, idm, b.array());
+        Authentication1Response r1 =
+            new Authentication1Response(FeliCaLib.execute(nfcTag, auth1, context, interceptors));
+        if ( r1.getChallengeResponse() == null ) {
+            throw new FeliCaException("Authentication1 failed. invalid response");
+        }
+        ITransactionCipher cipher = authenticator.establish(
+                idm, m1c, r1.getChallengeResponse(), r1.getChallenge());
+
+        // Authentication2
+        CommandPacket auth2 =
+            new CommandPacket(COMMAND_AUTHENTICATION2, idm, cipher.getChallengeResponse());
+        Authentication2Response r2 =
+            new Authentication2Response(FeliCaLib.execute(nfcTag, auth2, context, interceptors));
+        if ( r2.getIDt() == null ) {
+            throw new FeliCaException("Authentication2 failed. invalid response");
+        }
+        return new AuthenticationSession(nfcTag, idm, areaCodes.clone()
+                , serviceCodes.clone(), cipher, r2.getIDt(), r2.getPMi());
+    }
+    /**
+     * 暗号化領域のデータを読み込みます
+     *
+     * @param serviceCode 認証済みのサービスコードをセット
+     * @param addrs 読み込むブロックのアドレス (0オリジン)をセット
+     * @return ReadResponse 復号済みの読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse read(ServiceCode serviceCode, byte... addrs) throws FeliCaException {
+        int[] blockNumbers = new int[addrs.length];
+        for ( int i = 0; i < addrs.length; i++ ) {
+            blockNumbers[i] = addrs[i] & 0xff;
+        }
+        return this.read(serviceCode, blockNumbers);
+    }
+    /**
+     * 暗号化領域のデータを読み込みます
+     *
+     * @param serviceCode 認証済みのサービスコードをセット
+     * @param blockNumbers 読み込むブロックの番号 (0〜65535)をセット
+     * @return ReadResponse 復号済みの読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse read(ServiceCode serviceCode, int... blockNumbers) throws FeliCaException {
+        int order = this.checkService(serviceCode);
+        int length = 1;
+        for ( int blockNumber : blockNumbers ) {
+            length += BlockListElement.encodedLength(blockNumber);
+        }
+        byte[] data = new byte[length];
+        data[0] = (byte) blockNumbers.length;                // 同時読み込みブロック数
+        int p = 1;
+        for ( int blockNumber : blockNumbers ) {
+            p = BlockListElement.encode(data, p, 0, order, blockNumber); // ブロックリスト
+        }
+        return new ReadResponse(this.transceive(COMMAND_READ, data));
+    }
+    /**
+     * 暗号化領域にデータを書き込みます
+     *
+     * @param serviceCode 認証済みのサービスコードをセット
+     * @param addr データをセットするブロックのアドレス(0オリジン)をセット
+     * @param buff 書きこむデータをセット (16バイト)
+     * @return WriteResponse 復号済みの書き込んだ結果レスポンスが戻ります
+     * @throws FeliCaException
+     */
+    public WriteResponse write(ServiceCode serviceCode, byte addr, byte[] buff) throws FeliCaException {
+        return this.write(serviceCode, addr & 0xff, buff);
+    }
+    /**
+     * 暗号化領域にデータを書き込みます
+     *
+     * @param serviceCode 認証済みのサービスコードをセット
+     * @param blockNumber データをセットするブロックの番号 (0〜65535)をセット
+     * @param buff 書きこむデータをセット (16バイト)
+     * @return WriteResponse 復号済みの書き込んだ結果レスポンスが戻ります
+     * @throws FeliCaException
+     */
+    public WriteResponse write(ServiceCode serviceCode, int blockNumber, byte[] buff) throws FeliCaException {
+        int order = this.checkService(serviceCode);
+        if ( this.cache != null ) {
+            this.cache.invalidate(serviceCode);
+        }
+        // ブロック数 1 + ブロックリスト 2〜3 + データ 16バイト
+        byte[] data = new byte[1 + BlockListElement.encodedLength(blockNumber) + 16];
+        data[0] = (byte) 0x01;                               // 同時書き込みブロック数
+        int p = BlockListElement.encode(data, 1, 0, order, blockNumber); // ブロックリスト
+        System.arraycopy(buff, 0, data, p, buff.length > 16 ? 16 : buff.length); // 書き出すデータ (一度につき16バイト)
+        return new WriteResponse(this.transceive(COMMAND_WRITE, data));
+    }
+    /**
+     * 指定したサービスがこのセッションで認証済みか否かを検査します
+     *
+     * @param serviceCodes 検査するサービスコードをセット
+     * @return boolean 全て認証済みの場合 trueが戻ります
+     */
+    public boolean covers(ServiceCode... serviceCodes) {
+        for ( ServiceCode s : serviceCodes ) {
+            if ( this.indexOf(s) < 0 ) return false;
+        }
+        return true;
+    }
+    /**
+     * 指定したエリアがこのセッションで認証済みか否かを検査します
+     *
+     * @param areaCodes 検査するエリアコードをセット
+     * @return boolean 全て認証済みの場合 trueが戻ります
+     */
+    public boolean coversArea(int... areaCodes) {
+        outer:
+        for ( int a : areaCodes ) {
+            for ( int b : this.areaCodes ) {
+                if ( a == b ) continue outer;
+            }
+            return false;
+        }
+        return true;
+    }
+    /**
+     * セッションが有効か否かを検査します
+     * @return boolean 有効な場合 trueが戻ります
+     */
+    public boolean isValid() {
+        return this.valid;
+    }
+    /**
+     * セッションを無効にします
+     */
+    public void invalidate() {
+        this.valid = false;
+    }
+    /**
+     * 認証したカードのIDmを取得します
+     * @return IDm IDmが戻ります
+     */
+    public IDm getIDm() {
+        return this.idm;
+    }
+    /**
+     * トランザクションID(IDt)を取得します
+     * @return IDm IDtが戻ります
+     */
+    public IDm getIDt() {
+        return this.idt;
+    }
+    /**
+     * PMiを取得します
+     * @return byte[] PMiが戻ります
+     */
+    public byte[] getPMi() {
+        return this.pmi;
+    }
+    /**
+     * データ部を暗号化してコマンドを実行し、レスポンスを復号します
+     *
+     * @param commandCode コマンドコードをセット
+     * @param plain 平文のデータ部をセット
+     * @return CommandResponse 復号済みのレスポンスが戻ります
+     * @throws FeliCaException
+     */
+    protected CommandResponse transceive(byte commandCode, byte[] plain) throws FeliCaException {
+        if ( !this.valid ) {
+            throw new FeliCaException("authentication session is no longer valid");
+        }
+        // 暗号化した時点で暗号の状態が進むため、失敗した場合はカードと同期できなくなる。
+        // 以降のコマンドが不可解なエラーにならないように、失敗した時点でセッションを破棄する
+        boolean succeeded = false;
+        try {
+            CommandPacket command =
+                new CommandPacket(commandCode, this.idt, this.cipher.encrypt(plain));
+            byte[] raw = FeliCaLib.executeRaw(this.nfcTag, command, this.transaction, this.interceptors);
+            if ( raw == null || raw.length < 10 ) {
+                throw new FeliCaException("tag lost. authentication session closed");
+            }
+            if ( !command.getCommandSpec().accepts(raw[1]) ) {
+                throw new FeliCaException(command.getCommandSpec().getName() 
+                        + " : unexpected response code " + Util.getHexString(raw[1])
+                        + ". authentication session closed");
+            }
+            byte[] decrypted = this.cipher.decrypt(Arrays.copyOfRange(raw, 10, raw.length));
+            ByteBuffer b = ByteBuffer.allocate(10 + decrypted.length);
+            b.put((byte) (10 + decrypted.length)).put(raw[1])
+             .put(raw, 2, 8)                                     // IDt
+             .put(decrypted);
+            succeeded = true;
+            return new CommandResponse(b.array());
+        } finally {
+            if ( !succeeded ) {
+                this.valid = false;
+            }
+        }
+    }
+    /**
+     * サービスコードリスト順を検査して取得します
+     */
+    protected int checkService(ServiceCode serviceCode) throws FeliCaException {
+        int order = this.indexOf(serviceCode);
+        if ( order < 0 ) {
+            throw new FeliCaException("service " + serviceCode + " is not authenticated in this session");
+        }
+        return order;
+    }
+    /**
+     * サービスコードリスト中の位置を取得します
+     */
+    protected int indexOf(ServiceCode serviceCode) {
+        for ( int i = 0; i < this.serviceCodes.length; i++ ) {
+            if ( this.serviceCodes[i].equals(serviceCode) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
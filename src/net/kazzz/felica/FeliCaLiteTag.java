@@ -226,9 +226,9 @@ public class FeliCaLiteTag extends NfcTag {
        StringBuilder sb = new StringBuilder();
        sb.append("FeliCaLiteTag \n");
        if ( this.idm != null ) 
-           sb.append(this.idm.toString()).append("\n");
+           this.idm.render(sb).append("\n");
        if ( this.pmm != null ) 
-           sb.append(this.pmm.toString()).append("\n");
+           this.pmm.render(sb).append("\n");
        return sb.toString();
     }
 }
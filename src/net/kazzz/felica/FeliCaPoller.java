@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_POLLING;
+import static net.kazzz.felica.lib.FeliCaLib.RESPONSE_POLLING;
+
+import java.io.IOException;
+
+import net.kazzz.felica.command.PollingResponse;
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
+import net.kazzz.felica.lib.FeliCaStats;
+import net.kazzz.felica.lib.FrameRecorder;
+import net.kazzz.felica.lib.Util;
+import android.nfc.TagLostException;
+import android.nfc.tech.NfcF;
+
+/**
+ * 連続してポーリングを行い、カードの到着/交換/離脱だけを通知するクラスを提供します
+ *
+ * <pre>
+ * システムコード毎のポーリングフレームは生成時に一度だけ組み立てて再利用し、
+ * NfcFへの接続も保持したままにします。受信したフレームは IDm/PMmを long として
+ * 比較するだけなので、カードが置かれたままの状態やカードが無い状態では
+ * コマンドパケット、レスポンス、IDm、PMm等のオブジェクトを生成しません。
+ * (NfcF#transceiveが戻すバイト列だけは Androidの APIが生成します)
+ *
+ * IDm/PMmのオブジェクトはイベント発生時にだけ生成し、FeliCaTagに反映します。
+ *
+ * Tagに同時に接続できる NfcFは1つだけのため、保持している接続は FeliCaLib#shareConnection()で
+ * 共有します。リスナーの中や、ポーリングの合間に別のスレッドから FeliCaTagのコマンドを実行しても、
+ * 同じ接続を使用します (送受信はこの接続で同期します)。
+ * ポーリングのフレームはアロケーションを避けるため FeliCaLib#executeを経由しないので、
+ * カード取引(TransactionContext)の期限や通信回数、インタセプタの対象になりません。
+ * このクラスはスレッドセーフではありません。poll()は単一のスレッドから呼び出してください
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/20
+ * @since Android API Level 10
+ *
+ */
+
+public class FeliCaPoller {
+    /**
+     * カードの状態変化を受け取るリスナーを定義します
+     */
+    public interface IListener {
+        /**
+         * カードが置かれた時に呼ばれます
+         * @param poller 通知元のポーラーが渡されます (getIDm()等で内容を参照できます)
+         */
+        void onCardArrived(FeliCaPoller poller);
+        /**
+         * 別のカードに置き換えられた時に呼ばれます
+         * @param poller 通知元のポーラーが渡されます
+         * @param previousIDm 以前のカードの IDmが渡されます
+         */
+        void onCardChanged(FeliCaPoller poller, long previousIDm);
+        /**
+         * カードが離れた時に呼ばれます
+         * @param poller 通知元のポーラーが渡されます
+         * @param previousIDm 離れたカードの IDmが渡されます
+         */
+        void onCardLeft(FeliCaPoller poller, long previousIDm);
+    }
+
+    private final FeliCaTag tag;
+    private final int[] systemCodes;
+    private final byte[][] frames;  // システムコード毎のポーリングフレーム
+    private final NfcF nfcF;
+    private IListener listener;
+
+    private boolean present;
+    private long idm;
+    private long pmm;
+    private int systemCode;
+
+    /**
+     * コンストラクタ
+     *
+     * @param tag ポーリングするタグをセット (イベント発生時に IDm/PMmが反映されます)
+     * @param systemCodes ポーリングするシステムコードを優先順にセット
+     * @throws FeliCaException タグが FeliCa(NFC-F)ではない場合にスローされます
+     */
+    public FeliCaPoller(FeliCaTag tag, int... systemCodes) throws FeliCaException {
+        if ( systemCodes.length == 0 ) {
+            throw new IllegalArgumentException("systemCodes is empty");
+        }
+        this.tag = tag;
+        this.nfcF = NfcF.get(tag.nfcTag);
+        if ( this.nfcF == null ) {
+            throw new FeliCaException("tag is not FeliCa(NFC-F) ");
+        }
+        this.systemCodes = systemCodes.clone();
+        this.frames = new byte[systemCodes.length][];
+        for ( int i = 0; i < systemCodes.length; i++ ) {
+            this.frames[i] = new byte[] {
+                      (byte) 6                           // データ長
+                    , COMMAND_POLLING
+                    , (byte) (systemCodes[i] >> 8)       // システムコード
+                    , (byte) (systemCodes[i] & 0xff)
+                    , (byte) 0x01                        // システムコードリクエスト
+                    , (byte) 0x00 };                     // タイムスロット
+        }
+    }
+    /**
+     * リスナーをセットします
+     * @param listener リスナーをセット (不要な場合は null)
+     */
+    public void setListener(IListener listener) {
+        this.listener = listener;
+    }
+    /**
+     * ポーリングを1巡実行します
+     *
+     * <pre>
+     * システムコードを順にポーリングし、最初に応答したシステムを採用します。
+     * どのシステムコードにも応答が無い場合はカードが無いものとします。
+     * 通信エラー(IO_ERROR)の場合はカードの有無が分からないため、状態を変更しません。
+     * 状態が変化した場合はリスナーに通知します
+     * </pre>
+     *
+     * @return FeliCaStatus カードが応答した場合は OK、それ以外は NO_CARD または IO_ERRORが戻ります
+     */
+    public FeliCaStatus poll() {
+        FeliCaStatus status = FeliCaStatus.NO_CARD;
+        for ( int i = 0; i < this.frames.length; i++ ) {
+            byte[] r;
+            try {
+                r = this.transceive(this.frames[i]);
+            } catch (IOException e) {
+                status = FeliCaStatus.IO_ERROR;
+                continue;
+            }
+            if ( r != null && r.length >= 18 && r[1] == RESPONSE_POLLING ) {
+                this.update(r, this.systemCodes[i]);
+                return FeliCaStatus.OK;
+            }
+        }
+        if ( status == FeliCaStatus.NO_CARD ) {
+            this.absent();
+        }
+        return status;
+    }
+    /**
+     * カードが置かれているか否かを検査します
+     * @return boolean カードが置かれている場合 trueが戻ります
+     */
+    public boolean isPresent() {
+        return this.present;
+    }
+    /**
+     * 現在のカードの IDmを取得します
+     * @return long IDm(8バイト big endian)が戻ります (カードが無い場合は 0)
+     */
+    public long getIDm() {
+        return this.idm;
+    }
+    /**
+     * 現在のカードの PMmを取得します
+     * @return long PMm(8バイト big endian)が戻ります (カードが無い場合は 0)
+     */
+    public long getPMm() {
+        return this.pmm;
+    }
+    /**
+     * 現在のカードが応答したシステムコードを取得します
+     * @return int システムコードが戻ります (カードが無い場合は -1)
+     */
+    public int getSystemCode() {
+        return this.present ? this.systemCode : -1;
+    }
+    /**
+     * ポーリング対象のタグを取得します
+     * @return FeliCaTag タグが戻ります
+     */
+    public FeliCaTag getTag() {
+        return this.tag;
+    }
+    /**
+     * NfcFへの接続を閉じ、共有を解除します
+     */
+    public void close() {
+        FeliCaLib.releaseConnection(this.nfcF);
+        this.disconnect();
+    }
+    /**
+     * NfcFへの接続を閉じます (共有は解除しません)
+     */
+    private void disconnect() {
+        synchronized ( this.nfcF ) {
+            try {
+                this.nfcF.close();
+            } catch (IOException e) {
+                // 既に切断されている
+            }
+        }
+    }
+
+    /**
+     * 接続を保持したままフレームを送受信します
+     * @return byte[] 受信したフレームが戻ります (カードが応答しない場合は null)
+     */
+    protected byte[] transceive(byte[] frame) throws IOException {
+        synchronized ( this.nfcF ) {
+            return this.transceiveConnected(frame);
+        }
+    }
+    /**
+     * 接続していなければ接続し、接続を共有してからフレームを送受信します (nfcFで同期して呼び出します)
+     */
+    private byte[] transceiveConnected(byte[] frame) throws IOException {
+        try {
+            if ( !this.nfcF.isConnected() ) {
+                this.nfcF.connect();
+                FeliCaLib.shareConnection(this.nfcF);
+            }
+            long start = System.nanoTime();
+            byte[] r = null;
+            FeliCaStatus outcome = FeliCaStatus.IO_ERROR;
+            try {
+                r = this.nfcF.transceive(frame);
+                outcome = FeliCaStats.classify(r);
+            } catch (TagLostException e) {
+                outcome = FeliCaStatus.TAG_LOST;
+                throw e;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                FeliCaStats.record(frame, r, outcome, nanos);
+                FrameRecorder.record(frame, r, outcome, nanos);
+            }
+            return r;
+        } catch (TagLostException e) {
+            this.disconnect(); // 次回のポーリングで再接続する
+            return null;
+        }
+    }
+    /**
+     * 応答したフレームを反映します
+     */
+    private void update(byte[] r, int systemCode) {
+        long newIDm = ((long) Util.getU32(r, 2) << 32) | (Util.getU32(r, 6) & 0xffffffffL);
+        long newPMm = ((long) Util.getU32(r, 10) << 32) | (Util.getU32(r, 14) & 0xffffffffL);
+        boolean wasPresent = this.present;
+        long previous = this.idm;
+        this.present = true;
+        this.idm = newIDm;
+        this.pmm = newPMm;
+        this.systemCode = systemCode;
+        if ( wasPresent && previous == newIDm ) {
+            return; // 同じカードが置かれたまま
+        }
+        this.tag.applyPolling(new PollingResponse(new CommandResponse(r)));
+        if ( this.listener == null ) return;
+        if ( wasPresent ) {
+            this.listener.onCardChanged(this, previous);
+        } else {
+            this.listener.onCardArrived(this);
+        }
+    }
+    /**
+     * カードが無い状態を反映します
+     */
+    private void absent() {
+        if ( !this.present ) return;
+        long previous = this.idm;
+        this.present = false;
+        this.idm = 0;
+        this.pmm = 0;
+        this.tag.applyPolling(new PollingResponse(null));
+        if ( this.listener != null ) {
+            this.listener.onCardLeft(this, previous);
+        }
+    }
+}
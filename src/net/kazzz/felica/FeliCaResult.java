@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
+
+/**
+ * 例外を使用しないコマンド実行APIの結果を保持するクラスを提供します
+ * 
+ * <pre>
+ * カードが無い、カードが離れたといった想定内の結果は例外ではなく状態で戻します。
+ * レスポンスを伴わない結果は共有のインスタンスを戻すため、生成のコストもかかりません
+ * </pre>
+ * 
+ * @param <T> レスポンスの型パラメタ
+ * 
+ * @author Kazzz
+ * @date 2011/03/20
+ * @since Android API Level 9
+ *
+ */
+
+public final class FeliCaResult<T extends CommandResponse> {
+    private static final FeliCaResult<?> NO_CARD = new FeliCaResult<CommandResponse>(FeliCaStatus.NO_CARD, null, null);
+    private static final FeliCaResult<?> TAG_LOST = new FeliCaResult<CommandResponse>(FeliCaStatus.TAG_LOST, null, null);
+    
+    private final FeliCaStatus status;
+    private final T response;
+    private final Exception cause;
+    
+    private FeliCaResult(FeliCaStatus status, T response, Exception cause) {
+        this.status = status;
+        this.response = response;
+        this.cause = cause;
+    }
+    /**
+     * レスポンスを伴う結果を生成します
+     * @param status 結果の状態をセット
+     * @param response レスポンスをセット
+     * @return FeliCaResult<T> 結果が戻ります
+     */
+    public static <T extends CommandResponse> FeliCaResult<T> of(FeliCaStatus status, T response) {
+        return new FeliCaResult<T>(status, response, null);
+    }
+    /**
+     * レスポンスを伴わない結果を取得します
+     * @param status 結果の状態をセット (NO_CARD, TAG_LOSTは共有のインスタンスが戻ります)
+     * @return FeliCaResult<T> 結果が戻ります
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends CommandResponse> FeliCaResult<T> of(FeliCaStatus status) {
+        switch ( status ) {
+        case NO_CARD:
+            return (FeliCaResult<T>) NO_CARD;
+        case TAG_LOST:
+            return (FeliCaResult<T>) TAG_LOST;
+        default:
+            return new FeliCaResult<T>(status, null, null);
+        }
+    }
+    /**
+     * 通信エラーの結果を生成します
+     * @param cause 原因となった例外をセット (TransactionExpiredExceptionの場合は DEADLINE_EXCEEDED)
+     * @return FeliCaResult<T> 結果が戻ります
+     */
+    public static <T extends CommandResponse> FeliCaResult<T> error(Exception cause) {
+        if ( cause instanceof TransactionExpiredException ) {
+            return new FeliCaResult<T>(FeliCaStatus.DEADLINE_EXCEEDED, null, cause);
+        }
+        return new FeliCaResult<T>(FeliCaStatus.IO_ERROR, null, cause);
+    }
+    /**
+     * 結果の状態を取得します
+     * @return FeliCaStatus 状態が戻ります
+     */
+    public FeliCaStatus getStatus() {
+        return this.status;
+    }
+    /**
+     * 正常終了したか否かを検査します
+     * @return boolean 正常終了した場合 trueが戻ります
+     */
+    public boolean isOK() {
+        return this.status == FeliCaStatus.OK;
+    }
+    /**
+     * レスポンスを取得します
+     * @return T レスポンスが戻ります (OK, STATUS_ERROR, INVALID_RESPONSE以外は null)
+     */
+    public T getResponse() {
+        return this.response;
+    }
+    /**
+     * 通信エラーの原因を取得します
+     * @return Exception 原因となった例外が戻ります (IO_ERROR, DEADLINE_EXCEEDED以外は null)
+     */
+    public Exception getCause() {
+        return this.cause;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("FeliCaResult ").append(this.status);
+        if ( this.response != null )
+            this.response.renderCompact(sb.append(' '));
+        if ( this.cause != null )
+            sb.append(' ').append(this.cause);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+/**
+ * 例外を使用しないコマンド実行API(FeliCaTag#tryPolling等)の結果状態を定義します
+ * 
+ * @author Kazzz
+ * @date 2011/03/20
+ * @since Android API Level 9
+ *
+ */
+
+public enum FeliCaStatus {
+    /** 正常終了 */
+    OK,
+    /** カードが無い (ポーリングに応答が無い、またはポーリングしていない) */
+    NO_CARD,
+    /** コマンド実行中にカードが離れた */
+    TAG_LOST,
+    /** カードがステータスフラグでエラーを返した */
+    STATUS_ERROR,
+    /** 通信エラー */
+    IO_ERROR,
+    /** レスポンスコードまたは長さが不正なレスポンスを受信した */
+    INVALID_RESPONSE,
+    /** カード取引の期限または通信回数を超過したため送信しなかった */
+    DEADLINE_EXCEEDED,
+    /** 省略可能なコマンドを予算不足のため実行しなかった */
+    SKIPPED;
+}
@@ -16,8 +16,10 @@ import static net.kazzz.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
 import static net.kazzz.felica.lib.FeliCaLib.COMMAND_REQUEST_SYSTEMCODE;
 import static net.kazzz.felica.lib.FeliCaLib.COMMAND_SEARCH_SERVICECODE;
 import static net.kazzz.felica.lib.FeliCaLib.COMMAND_WRITE_WO_ENCRYPTION;
+import static net.kazzz.felica.lib.FeliCaLib.RESPONSE_READ_WO_ENCRYPTION;
+import static net.kazzz.felica.lib.FeliCaLib.SERVICE_EDY_BALANCE;
+import static net.kazzz.felica.lib.FeliCaLib.SERVICE_EDY_HISTORY;
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -25,13 +27,18 @@ import java.util.List;
 import net.kazzz.felica.command.PollingResponse;
 import net.kazzz.felica.command.ReadResponse;
 import net.kazzz.felica.command.WriteResponse;
+import net.kazzz.felica.edy.EdyDecoder;
+import net.kazzz.felica.edy.EdyHistoryBatch;
 import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.BlockListElement;
 import net.kazzz.felica.lib.FeliCaLib.CommandPacket;
 import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
 import net.kazzz.felica.lib.FeliCaLib.IDm;
 import net.kazzz.felica.lib.FeliCaLib.PMm;
 import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
 import net.kazzz.felica.lib.FeliCaLib.SystemCode;
+import net.kazzz.felica.lib.ICommandInterceptor;
+import net.kazzz.felica.lib.Util;
 import net.kazzz.nfc.NfcException;
 import net.kazzz.nfc.NfcTag;
 import android.nfc.Tag;
@@ -63,6 +70,12 @@ public class FeliCaTag extends NfcTag {
     protected Tag nfcTag;
     protected IDm idm;
     protected PMm pmm;
+    protected AuthenticationSession session;
+    protected final TagSessionCache cache = new TagSessionCache();
+    protected final SystemTable systems = new SystemTable();
+    protected TransactionContext transaction;
+    protected ICommandInterceptor[] interceptors; // タグ毎のインタセプタ (無い場合は null)
+    protected boolean cacheEnabled = true;
     /**
      * コンストラクタ
      * @param in 入力するパーセル化オブジェクトをセット
@@ -89,6 +102,7 @@ public class FeliCaTag extends NfcTag {
         this.nfcTag =  nfcTag;
         this.idm = idm;
         this.pmm = pmm;
+        this.select(idm, pmm, -1);
     }
     
     
@@ -110,6 +124,7 @@ public class FeliCaTag extends NfcTag {
         this.nfcTag = source.readParcelable(cl);
         this.idm = source.readParcelable(cl);
         this.pmm = source.readParcelable(cl);
+        this.select(this.idm, this.pmm, -1);
     }
     /**
      * カードデータをポーリングします
@@ -122,18 +137,164 @@ public class FeliCaTag extends NfcTag {
         if ( this.nfcTag == null ) {
             throw new FeliCaException("tagService is null. no polling execution");
         }
-        CommandPacket polling = 
-            new CommandPacket(COMMAND_POLLING
+        CommandResponse r = 
+            FeliCaLib.execute(this.nfcTag, this.createPollingPacket(systemCode), this.transaction, this.interceptors);
+        PollingResponse pr = new PollingResponse(r);
+        this.applyPolling(pr);
+        return pr.getBytes();
+    }
+    /**
+     * カードデータをポーリングします (例外をスローしません)
+     * 
+     * <pre>
+     * カードが無い場合は NO_CARDが戻ります。カードが無いことが通常の状態である
+     * ポーリングループでの使用を想定しています
+     * </pre>
+     * 
+     * @param systemCode 対象のシステムコードをセットします 
+     * @return FeliCaResult<PollingResponse> 結果が戻ります
+     */
+    public FeliCaResult<PollingResponse> tryPolling(int systemCode) {
+        if ( this.nfcTag == null ) {
+            return FeliCaResult.of(FeliCaStatus.NO_CARD);
+        }
+        byte[] raw;
+        try {
+            raw = FeliCaLib.executeRaw(this.nfcTag, this.createPollingPacket(systemCode), this.transaction, this.interceptors);
+        } catch (FeliCaException e) {
+            return FeliCaResult.error(e);
+        }
+        if ( raw == null ) {
+            this.applyPolling(new PollingResponse(null));
+            return FeliCaResult.of(FeliCaStatus.NO_CARD);
+        }
+        if ( !isValidResponse(COMMAND_POLLING, raw) ) {
+            return FeliCaResult.of(FeliCaStatus.INVALID_RESPONSE);
+        }
+        PollingResponse pr = new PollingResponse(new CommandResponse(raw));
+        if ( pr.getPMm() == null ) {
+            return FeliCaResult.of(FeliCaStatus.INVALID_RESPONSE);
+        }
+        this.applyPolling(pr);
+        return FeliCaResult.of(FeliCaStatus.OK, pr);
+    }
+    /**
+     * ポーリングのコマンドパケットを生成します
+     */
+    protected CommandPacket createPollingPacket(int systemCode) throws FeliCaException {
+        return new CommandPacket(COMMAND_POLLING
                     , new byte[] {
                       (byte) (systemCode >> 8)  // システムコード
                     , (byte) (systemCode & 0xff)
                     , (byte) 0x01              //　システムコードリクエスト
                     , (byte) 0x00});           // タイムスロット}; 
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, polling);
-        PollingResponse pr = new PollingResponse(r);
-        this.idm = pr.getIDm();
-        this.pmm = pr.getPMm();
-        return pr.getBytes();
+    }
+    /**
+     * ポーリングの結果を反映します
+     */
+    protected void applyPolling(PollingResponse pr) {
+        this.select(pr.getIDm(), pr.getPMm(), pr.getSystemCode());
+    }
+    /**
+     * 以降のコマンドで使用する IDm/PMmを切り替えます
+     */
+    private void select(IDm idm, PMm pmm, int systemCode) {
+        if ( this.session != null && ( idm == null
+                || !Arrays.equals(this.session.getIDm().getBytes(), idm.getBytes()) ) ) {
+            this.session.invalidate(); // 別のカード(システム)に対する認証セッションは破棄する
+            this.session = null;
+        }
+        this.idm = idm;
+        this.pmm = pmm;
+        if ( this.cache.bind(idm) ) { // 別のカードの場合はキャッシュとシステムの一覧を破棄する
+            this.systems.clear();
+        }
+        if ( idm != null && pmm != null ) {
+            this.systems.put(systemCode, idm, pmm);
+        }
+    }
+    /**
+     * 以降のコマンドの対象とするシステムを選択します
+     * 
+     * <pre>
+     * 既にポーリング(または discoverSystems()で導出)したシステムの場合は、
+     * 保持している IDm/PMmに切り替えるだけで再ポーリングしません。
+     * 未知のシステムの場合は一度だけポーリングして登録します
+     * </pre>
+     * 
+     * @param systemCode 対象のシステムコードをセット
+     * @return IDm 選択したシステムの IDmが戻ります
+     * @throws FeliCaException カードがシステムを持たない(応答しない)場合にスローされます
+     */
+    public IDm selectSystem(int systemCode) throws FeliCaException {
+        int n = this.systems.indexOf(systemCode);
+        if ( n >= 0 ) {
+            if ( this.idm != this.systems.getIDm(n) ) {
+                this.select(this.systems.getIDm(n), this.systems.getPMm(n), systemCode);
+            }
+            return this.idm;
+        }
+        if ( this.nfcTag == null ) {
+            throw new FeliCaException("tagService is null. no polling execution");
+        }
+        PollingResponse pr = new PollingResponse(
+                FeliCaLib.execute(this.nfcTag, this.createPollingPacket(systemCode), this.transaction, this.interceptors));
+        if ( pr.getIDm() == null || pr.getPMm() == null ) {
+            // カードが離れたのか、システムが無いのかは区別できないため現在の状態は変更しない
+            throw new FeliCaException("no response for systemCode : " + Integer.toHexString(systemCode));
+        }
+        this.applyPolling(pr);
+        return this.idm;
+    }
+    /**
+     * カードの全てのシステムを登録します
+     * 
+     * <pre>
+     * Request System Codeの応答順がシステム番号であることを利用し、
+     * 現在の IDmのシステム番号を置き換えて各システムの IDmを導出します。
+     * (PMmは現在のシステムのものを共用します)
+     * 以降は selectSystem()で再ポーリングせずにシステムを切り替えられます
+     * </pre>
+     * 
+     * @return int カードのシステム数が戻ります
+     * @throws FeliCaException
+     */
+    public int discoverSystems() throws FeliCaException {
+        if ( this.idm == null ) {
+            throw new FeliCaException("IDm is null. polling first");
+        }
+        SystemCode[] codes = this.getSystemCodeList();
+        int count = Math.min(codes.length, SystemTable.MAX_SYSTEMS);
+        for ( int i = 0; i < count; i++ ) {
+            int code = Util.getU16BE(codes[i].getBytes(), 0);
+            IDm known = this.systems.getIDm(i);
+            if ( known != null ) {
+                this.systems.put(code, known, this.systems.getPMm(i));
+            } else {
+                this.systems.put(code, SystemTable.withSystemNumber(this.idm, i), this.pmm);
+            }
+        }
+        return codes.length;
+    }
+    /**
+     * 現在のシステム番号を取得します
+     * @return int システム番号(0〜15)が戻ります (ポーリングしていない場合は -1)
+     */
+    public int getSystemNumber() {
+        return this.idm != null ? SystemTable.systemNumberOf(this.idm) : -1;
+    }
+    /**
+     * システム毎の IDm/PMmのテーブルを取得します
+     * @return SystemTable テーブルが戻ります
+     */
+    public SystemTable getSystemTable() {
+        return this.systems;
+    }
+    /**
+     * レスポンスの長さとレスポンスコードを検査します
+     */
+    private static boolean isValidResponse(byte commandCode, byte[] raw) {
+        return raw.length >= 10 && FeliCaLib.getCommandSpec(commandCode).accepts(raw[1]);
     }
     /**
      * カードデータをポーリングしてIDmを取得します
@@ -162,6 +323,107 @@ public class FeliCaTag extends NfcTag {
     public PMm getPMm() throws FeliCaException {
         return this.pmm;
     }
+    /**
+     * カード取引を開始します
+     * 
+     * <pre>
+     * endTransaction()を呼ぶまでの間、このタグが発行する全てのコマンド(認証セッションを含む)は
+     * 期限と通信回数の上限の範囲で実行され、超過する場合は送信せずに
+     * TransactionExpiredException(try〜系のメソッドでは DEADLINE_EXCEEDED)で失敗します。
+     * 省略可能な読み込みには tryReadOptional()を使用します
+     * </pre>
+     * 
+     * @param timeoutMillis 現在からの期限(ミリ秒)をセット
+     * @param maxRoundTrips 通信回数の上限をセット (制限しない場合は TransactionContext.UNLIMITED)
+     * @return TransactionContext 開始したカード取引のコンテキストが戻ります
+     */
+    public TransactionContext beginTransaction(long timeoutMillis, int maxRoundTrips) {
+        TransactionContext context = new TransactionContext(timeoutMillis, maxRoundTrips);
+        context.setPMm(this.pmm);
+        this.setTransaction(context);
+        return context;
+    }
+    /**
+     * カード取引を終了します (以降のコマンドは制限されません)
+     */
+    public void endTransaction() {
+        this.setTransaction(null);
+    }
+    /**
+     * 実行中のカード取引のコンテキストを取得します
+     * @return TransactionContext コンテキストが戻ります (カード取引を開始していない場合は null)
+     */
+    public TransactionContext getTransaction() {
+        return this.transaction;
+    }
+    /**
+     * カード取引のコンテキストをセットします
+     */
+    protected void setTransaction(TransactionContext context) {
+        this.transaction = context;
+        this.bindSession();
+    }
+    /**
+     * このタグのコマンドだけに割り込むインタセプタを登録します
+     * 
+     * <pre>
+     * 全てのタグに割り込む場合は FeliCaLib#addInterceptorを使用します
+     * </pre>
+     * 
+     * @param interceptor 登録するインタセプタをセット
+     */
+    public void addInterceptor(ICommandInterceptor interceptor) {
+        this.interceptors = FeliCaLib.addInterceptor(this.interceptors, interceptor);
+        this.bindSession();
+    }
+    /**
+     * このタグに登録したインタセプタを解除します
+     * @param interceptor 解除するインタセプタをセット
+     */
+    public void removeInterceptor(ICommandInterceptor interceptor) {
+        this.interceptors = FeliCaLib.removeInterceptor(this.interceptors, interceptor);
+        this.bindSession();
+    }
+    /**
+     * 認証セッションにこのタグのキャッシュ、カード取引、インタセプタを引き継ぎます
+     */
+    private void bindSession() {
+        if ( this.session != null ) {
+            this.session.cache = this.cache; // 暗号化領域への書き込みもキャッシュに反映させる
+            this.session.transaction = this.transaction;
+            this.session.interceptors = this.interceptors;
+        }
+    }
+    /**
+     * セッションキャッシュの有効/無効をセットします
+     * 
+     * <pre>
+     * 有効な場合(既定)、システムコード/サービスコードの一覧と認証不要で読み込んだブロックを
+     * カードが変わるまで保持し、同じ要求にはカードと通信せずに応答します。
+     * 他のリーダーやアプリケーションが同じカードに書き込む可能性がある場合は無効にしてください
+     * </pre>
+     * 
+     * @param enabled 有効にする場合 trueをセット
+     */
+    public void setSessionCacheEnabled(boolean enabled) {
+        this.cacheEnabled = enabled;
+        if ( !enabled ) {
+            this.cache.clear();
+        }
+    }
+    /**
+     * セッションキャッシュが有効か否かを検査します
+     * @return boolean 有効な場合 trueが戻ります
+     */
+    public boolean isSessionCacheEnabled() {
+        return this.cacheEnabled;
+    }
+    /**
+     * セッションキャッシュの内容を全て破棄します
+     */
+    public void clearSessionCache() {
+        this.cache.clear();
+    }
     /**
      * SystemCodeの一覧を取得します。
      * 
@@ -169,16 +431,21 @@ public class FeliCaTag extends NfcTag {
      * @throws NfcException
      */
     public final SystemCode[] getSystemCodeList() throws FeliCaException {
+        SystemCode[] cached = this.cacheEnabled ? this.cache.getSystemCodes() : null;
+        if ( cached != null ) return cached;
         //request systemCode 
         CommandPacket reqSystemCode = new CommandPacket(COMMAND_REQUEST_SYSTEMCODE, idm);
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqSystemCode);
+        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqSystemCode, this.transaction, this.interceptors);
         byte[] retBytes = r.getBytes();
-        int num = (int)retBytes[10];
+        int num = Util.getU8(retBytes, 10);
         //Log.d(TAG, "Num SystemCode: " + num);
         SystemCode retCodeList[] = new SystemCode[num];
         for (int i=0; i < num; i++) {
             retCodeList[i] = new SystemCode(Arrays.copyOfRange(retBytes, 11+i*2, 13+i*2));
         }
+        if ( this.cacheEnabled ) {
+            this.cache.putSystemCodes(retCodeList);
+        }
         return retCodeList;
     }
     /**
@@ -188,6 +455,8 @@ public class FeliCaTag extends NfcTag {
      * @throws NfcException
      */
     public ServiceCode[] getServiceCodeList() throws FeliCaException {
+        ServiceCode[] cached = this.cacheEnabled ? this.cache.getServiceCodes() : null;
+        if ( cached != null ) return cached;
         int index = 1; // 0番目は root areaなので1オリジンで開始する
         List<ServiceCode> serviceCodeList = new ArrayList<ServiceCode>();
         while (true) {
@@ -199,7 +468,11 @@ public class FeliCaTag extends NfcTag {
             }
             index++;
         }
-        return serviceCodeList.toArray(new ServiceCode[serviceCodeList.size()]);
+        ServiceCode[] retCodeList = serviceCodeList.toArray(new ServiceCode[serviceCodeList.size()]);
+        if ( this.cacheEnabled ) {
+            this.cache.putServiceCodes(retCodeList);
+        }
+        return retCodeList;
     }
     /**
      * COMMAND_SEARCH_SERVICECODE を実行します。
@@ -212,7 +485,7 @@ public class FeliCaTag extends NfcTag {
         CommandPacket reqServiceCode =
             new CommandPacket(COMMAND_SEARCH_SERVICECODE, idm
                     , new byte[]{(byte)(index & 0xff), (byte)(index >> 8)});
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqServiceCode);
+        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqServiceCode, this.transaction, this.interceptors);
         byte[] bytes = r.getBytes();
         if (bytes == null || bytes.length <= 0 || bytes[1] != (byte)0x0b) { // 正常応答かどうか
             throw new FeliCaException("ResponseCode is not 0x0b");
@@ -229,20 +502,279 @@ public class FeliCaTag extends NfcTag {
      */
     public ReadResponse readWithoutEncryption(ServiceCode serviceCode,
             byte addr) throws FeliCaException {
+        return this.readWithoutEncryption(serviceCode, addr & 0xff);
+    }
+    /**
+     * 認証不要領域のデータを読み込みます
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber 読み込むブロックの番号 (0〜65535)をセット
+     * @return ReadResponse 読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse readWithoutEncryption(ServiceCode serviceCode,
+            int blockNumber) throws FeliCaException {
         if ( this.nfcTag == null ) {
             throw new FeliCaException("tagService is null. no read execution");
         }
+        ReadResponse cached = this.readFromCache(serviceCode, blockNumber);
+        if ( cached != null ) return cached;
         // read without encryption
-        byte[] bytes = serviceCode.getBytes();
-        CommandPacket readWoEncrypt = 
-            new CommandPacket(COMMAND_READ_WO_ENCRYPTION, idm
-                ,  new byte[]{(byte) 0x01         // サービス数
-                    , (byte) bytes[0]             // サービスコード (little endian)
-                    , (byte) bytes[1]
-                    , (byte) 0x01                 // 同時読み込みブロック数
-                    , (byte) 0x80, addr });       // ブロックリスト
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, readWoEncrypt);
-        return new ReadResponse(r); 
+        CommandResponse r = FeliCaLib.execute(this.nfcTag
+                , this.createReadPacket(serviceCode, blockNumber), this.transaction, this.interceptors);
+        return this.storeToCache(serviceCode, new int[]{blockNumber}, new ReadResponse(r)); 
+    }
+    /**
+     * 認証不要領域の複数ブロックを一度に読み込みます
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param addrs 読み込むブロックのアドレス (0オリジン)をセット (最大15ブロック)
+     * @return ReadResponse 読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse readBlocksWithoutEncryption(ServiceCode serviceCode,
+            byte... addrs) throws FeliCaException {
+        return this.readBlocksWithoutEncryption(serviceCode, toBlockNumbers(addrs));
+    }
+    /**
+     * 認証不要領域の複数ブロックを一度に読み込みます
+     * 
+     * <pre>
+     * ブロック番号が255以下のブロックは 2バイト、それ以外は 3バイトのブロックリストエレメントで指定します
+     * </pre>
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers 読み込むブロックの番号 (0〜65535)をセット (最大15ブロック)
+     * @return ReadResponse 読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse readBlocksWithoutEncryption(ServiceCode serviceCode,
+            int... blockNumbers) throws FeliCaException {
+        if ( this.nfcTag == null ) {
+            throw new FeliCaException("tagService is null. no read execution");
+        }
+        if ( blockNumbers.length == 0 || blockNumbers.length > 15 ) {
+            throw new FeliCaException("number of blocks must be 1 to 15");
+        }
+        ReadResponse cached = this.readFromCache(serviceCode, blockNumbers);
+        if ( cached != null ) return cached;
+        CommandResponse r = 
+            FeliCaLib.execute(this.nfcTag, this.createReadPacket(serviceCode, blockNumbers), this.transaction, this.interceptors);
+        if ( r.getBytes() == null ) {
+            throw new FeliCaException("tag lost. no read response");
+        }
+        return this.storeToCache(serviceCode, blockNumbers, new ReadResponse(r)); 
+    }
+    /**
+     * 認証不要領域の複数ブロックを一度に読み込みます (例外をスローしません)
+     * 
+     * <pre>
+     * カードがステータスフラグでエラーを返した場合は STATUS_ERRORとレスポンスが戻ります
+     * </pre>
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param addrs 読み込むブロックのアドレス (0オリジン)をセット (最大15ブロック)
+     * @return FeliCaResult<ReadResponse> 結果が戻ります
+     * @throws IllegalArgumentException ブロック数が 1〜15の範囲に無い場合にスローされます
+     */
+    public FeliCaResult<ReadResponse> tryRead(ServiceCode serviceCode, byte... addrs) {
+        return this.tryRead(serviceCode, toBlockNumbers(addrs));
+    }
+    /**
+     * 認証不要領域の複数ブロックを一度に読み込みます (例外をスローしません)
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers 読み込むブロックの番号 (0〜65535)をセット (最大15ブロック)
+     * @return FeliCaResult<ReadResponse> 結果が戻ります
+     * @throws IllegalArgumentException ブロック数が 1〜15の範囲に無い場合にスローされます
+     */
+    public FeliCaResult<ReadResponse> tryRead(ServiceCode serviceCode, int... blockNumbers) {
+        if ( blockNumbers.length == 0 || blockNumbers.length > 15 ) {
+            throw new IllegalArgumentException("number of blocks must be 1 to 15");
+        }
+        if ( this.nfcTag == null || this.idm == null ) {
+            return FeliCaResult.of(FeliCaStatus.NO_CARD);
+        }
+        ReadResponse cached = this.readFromCache(serviceCode, blockNumbers);
+        if ( cached != null ) {
+            return FeliCaResult.of(FeliCaStatus.OK, cached);
+        }
+        byte[] raw;
+        try {
+            raw = FeliCaLib.executeRaw(this.nfcTag
+                    , this.createReadPacket(serviceCode, blockNumbers), this.transaction, this.interceptors);
+        } catch (FeliCaException e) {
+            return FeliCaResult.error(e);
+        }
+        if ( raw == null ) {
+            return FeliCaResult.of(FeliCaStatus.TAG_LOST);
+        }
+        if ( !isValidResponse(COMMAND_READ_WO_ENCRYPTION, raw) || raw.length < 12 ) {
+            return FeliCaResult.of(FeliCaStatus.INVALID_RESPONSE);
+        }
+        ReadResponse r = this.storeToCache(serviceCode, blockNumbers
+                , new ReadResponse(new CommandResponse(raw)));
+        return FeliCaResult.of(r.getStatusFlag1() == 0 ? FeliCaStatus.OK : FeliCaStatus.STATUS_ERROR, r);
+    }
+    /**
+     * 省略可能なブロックを、カード取引の予算が残っている場合に限り読み込みます (例外をスローしません)
+     * 
+     * <pre>
+     * セッションキャッシュにある場合は通信しないため、予算に関わらず読み込めます。
+     * 予約分(TransactionContext#setReserve)を残せない場合は通信せずに SKIPPEDが戻ります
+     * </pre>
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers 読み込むブロックの番号 (0〜65535)をセット (最大15ブロック)
+     * @return FeliCaResult<ReadResponse> 結果が戻ります
+     */
+    public FeliCaResult<ReadResponse> tryReadOptional(ServiceCode serviceCode, int... blockNumbers) {
+        if ( this.transaction != null 
+                && !this.transaction.canAfford(COMMAND_READ_WO_ENCRYPTION, blockNumbers.length)
+                && ( this.idm == null || this.readFromCache(serviceCode, blockNumbers) == null ) ) {
+            return FeliCaResult.of(FeliCaStatus.SKIPPED);
+        }
+        return this.tryRead(serviceCode, blockNumbers);
+    }
+    /**
+     * 認証不要領域の読み込みのコマンドパケットを生成します
+     */
+    protected CommandPacket createReadPacket(ServiceCode serviceCode, int... blockNumbers) 
+            throws FeliCaException {
+        int length = 4;
+        for ( int blockNumber : blockNumbers ) {
+            length += BlockListElement.encodedLength(blockNumber);
+        }
+        byte[] data = new byte[length];
+        data[0] = (byte) 0x01;                                // サービス数
+        int p = serviceCode.putBytes(data, 1);                // サービスコード (little endian)
+        data[p++] = (byte) blockNumbers.length;               // 同時読み込みブロック数
+        for ( int blockNumber : blockNumbers ) {
+            p = BlockListElement.encode(data, p, 0, 0, blockNumber); // ブロックリスト
+        }
+        return new CommandPacket(COMMAND_READ_WO_ENCRYPTION, idm, data);
+    }
+    /**
+     * 要求したブロックが全てキャッシュにある場合、キャッシュからレスポンスを組み立てます
+     * 
+     * @return ReadResponse レスポンスが戻ります (キャッシュに無いブロックがある場合は null)
+     */
+    protected ReadResponse readFromCache(ServiceCode serviceCode, int... blockNumbers) {
+        if ( !this.cacheEnabled || this.idm == null 
+                || !this.cache.containsBlocks(serviceCode, blockNumbers) ) {
+            return null;
+        }
+        int bs = TagSessionCache.BLOCK_SIZE;
+        byte[] raw = new byte[13 + blockNumbers.length * bs];
+        raw[0] = (byte) raw.length;                                 // データ長
+        raw[1] = RESPONSE_READ_WO_ENCRYPTION;                       // レスポンスコード
+        System.arraycopy(this.idm.getBytes(), 0, raw, 2, 8);        // IDm
+        raw[12] = (byte) blockNumbers.length;                       // ステータスフラグ1,2は 0 (正常)
+        for ( int i = 0; i < blockNumbers.length; i++ ) {
+            System.arraycopy(this.cache.getBlock(serviceCode, blockNumbers[i]), 0, raw, 13 + i * bs, bs);
+        }
+        return new ReadResponse(new CommandResponse(raw));
+    }
+    /**
+     * 正常に読み込んだブロックをキャッシュに保持します
+     * 
+     * @return ReadResponse 引数のレスポンスがそのまま戻ります
+     */
+    protected ReadResponse storeToCache(ServiceCode serviceCode, int[] blockNumbers, ReadResponse r) {
+        if ( this.cacheEnabled && r.getStatusFlag1() == 0 && r.getBlockCount() == blockNumbers.length ) {
+            this.cache.putBlocks(serviceCode, blockNumbers, r.getBlockData());
+        }
+        return r;
+    }
+    /**
+     * 複数のサービスのブロックを読み込むコマンドパケットを生成します
+     * 
+     * @param serviceCodes サービスコードリストをセット (最大16)
+     * @param serviceOrders ブロック毎のサービスコードリスト順をセット
+     * @param blockNumbers ブロック番号をセット
+     */
+    protected CommandPacket createReadPacket(ServiceCode[] serviceCodes
+            , int[] serviceOrders, int[] blockNumbers) throws FeliCaException {
+        int length = 2 + serviceCodes.length * 2;
+        for ( int blockNumber : blockNumbers ) {
+            length += BlockListElement.encodedLength(blockNumber);
+        }
+        byte[] data = new byte[length];
+        int p = 0;
+        data[p++] = (byte) serviceCodes.length;               // サービス数
+        for ( ServiceCode serviceCode : serviceCodes ) {
+            p = serviceCode.putBytes(data, p);                // サービスコード (little endian)
+        }
+        data[p++] = (byte) blockNumbers.length;               // 同時読み込みブロック数
+        for ( int i = 0; i < blockNumbers.length; i++ ) {
+            p = BlockListElement.encode(data, p, 0, serviceOrders[i], blockNumbers[i]); // ブロックリスト
+        }
+        return new CommandPacket(COMMAND_READ_WO_ENCRYPTION, idm, data);
+    }
+    /**
+     * 読み込み計画を実行します
+     * 
+     * <pre>
+     * 優先度の高いグループから順に、複数のサービス/ブロックをまとめて読み込み、
+     * 読み終えたエントリから順にリスナーに通知します。詳細は ReadPlanを参照してください
+     * </pre>
+     * 
+     * @param plan 読み込み計画をセット
+     * @param listener 結果を受け取るリスナーをセット
+     * @return FeliCaStatus 全てのグループを処理した場合は OK、中断した場合はその理由が戻ります
+     */
+    public FeliCaStatus execute(ReadPlan plan, ReadPlan.IListener listener) {
+        if ( this.nfcTag == null || this.idm == null ) {
+            for ( ReadPlan.Entry e : plan.getEntries() ) {
+                listener.onFailed(e, FeliCaStatus.NO_CARD);
+            }
+            return FeliCaStatus.NO_CARD;
+        }
+        return plan.execute(this, listener);
+    }
+    /**
+     * 1バイトのブロックアドレスをブロック番号(符号なし)に変換します
+     */
+    private static int[] toBlockNumbers(byte[] addrs) {
+        int[] blockNumbers = new int[addrs.length];
+        for ( int i = 0; i < addrs.length; i++ ) {
+            blockNumbers[i] = addrs[i] & 0xff;
+        }
+        return blockNumbers;
+    }
+    /**
+     * Edyの残高と利用履歴を読み込みます
+     * 
+     * <pre>
+     * 残高と履歴はそれぞれ1回の Readでまとめて読み込みます。
+     * 事前に SYSTEMCODE_EDYでポーリングしておく必要があります
+     * </pre>
+     * 
+     * @param history 利用履歴の出力先をセット (不要な場合は null)
+     * @return int 残高が戻ります
+     * @throws FeliCaException 残高または履歴を読み込めなかった場合にスローされます
+     */
+    public int readEdy(EdyHistoryBatch history) throws FeliCaException {
+        ReadResponse balance = 
+            this.readBlocksWithoutEncryption(ServiceCode.valueOf(SERVICE_EDY_BALANCE), (byte) 0);
+        if ( balance.getStatusFlag1() != 0 ) {
+            throw new FeliCaException("can't read Edy balance. statusFlag2 : " 
+                    + balance.getStatusFlag2());
+        }
+        if ( history != null ) {
+            byte[] addrs = new byte[EdyDecoder.MAX_HISTORY];
+            for ( int i = 0; i < addrs.length; i++ ) {
+                addrs[i] = (byte) i;
+            }
+            ReadResponse r = 
+                this.readBlocksWithoutEncryption(ServiceCode.valueOf(SERVICE_EDY_HISTORY), addrs);
+            if ( r.getStatusFlag1() != 0 ) {
+                throw new FeliCaException("can't read Edy history. statusFlag2 : " 
+                        + r.getStatusFlag2());
+            }
+            EdyDecoder.decodeHistory(r, history);
+        }
+        return EdyDecoder.decodeBalance(balance);
     }
     /**
      * 認証不要領域のデータを書き込みます
@@ -255,24 +787,120 @@ public class FeliCaTag extends NfcTag {
      */
     public WriteResponse writeWithoutEncryption(ServiceCode serviceCode,
             byte addr, byte[] buff) throws FeliCaException {
+        return this.writeWithoutEncryption(serviceCode, addr & 0xff, buff);
+    }
+    /**
+     * 認証不要領域のデータを書き込みます
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber データをセットするブロックの番号 (0〜65535)をセット
+     * @param buff 書きこむデータをセット (16バイト)
+     * @return WriteResponse 書き込んだ結果レスポンスオブジェクトが戻ります
+     * @throws FeliCaException
+     */
+    public WriteResponse writeWithoutEncryption(ServiceCode serviceCode,
+            int blockNumber, byte[] buff) throws FeliCaException {
         if ( this.nfcTag == null ) {
             throw new FeliCaException("tagService is null. no write execution");
         }
+        this.cache.invalidate(serviceCode); // 結果に関わらず、書き込み対象のサービスは読み直す
         // write without encryption
-        byte[] bytes = serviceCode.getBytes();
-        ByteBuffer b =  ByteBuffer.allocate(22); // コマンド 6バイト + 書きだすデータ 16バイト
-        b.put(new byte[]{(byte) 0x01             // Number of Service
-                , (byte) bytes[0]                // サービスコード (little endian)
-                , (byte) bytes[1]
-                , (byte) 0x01                    // 同時書き込みブロック数
-                , (byte) 0x80, (byte) addr       // ブロックリスト 0x80は (2バイトブロックエレメント+ランダムサービス)
-                });
-        b.put(buff, 0, buff.length > 16 ? 16 : buff.length); //書き出すデータ  (一度につき16バイト)
-        CommandPacket writeWoEncrypt = 
-            new CommandPacket(COMMAND_WRITE_WO_ENCRYPTION, idm, b.array());
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, writeWoEncrypt);
+        CommandResponse r = FeliCaLib.execute(this.nfcTag
+                , this.createWritePacket(serviceCode, blockNumber, buff), this.transaction, this.interceptors);
         return new WriteResponse(r);
     }
+    /**
+     * 認証不要領域のデータを書き込みます (例外をスローしません)
+     * 
+     * <pre>
+     * カードがステータスフラグでエラーを返した場合は STATUS_ERRORとレスポンスが戻ります
+     * </pre>
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param addr データをセットするブロックのアドレス(0オリジン)をセット
+     * @param buff 書きこむデータをセット (16バイト)
+     * @return FeliCaResult<WriteResponse> 結果が戻ります
+     */
+    public FeliCaResult<WriteResponse> tryWrite(ServiceCode serviceCode, byte addr, byte[] buff) {
+        return this.tryWrite(serviceCode, addr & 0xff, buff);
+    }
+    /**
+     * 認証不要領域のデータを書き込みます (例外をスローしません)
+     * 
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber データをセットするブロックの番号 (0〜65535)をセット
+     * @param buff 書きこむデータをセット (16バイト)
+     * @return FeliCaResult<WriteResponse> 結果が戻ります
+     */
+    public FeliCaResult<WriteResponse> tryWrite(ServiceCode serviceCode, int blockNumber, byte[] buff) {
+        if ( this.nfcTag == null || this.idm == null ) {
+            return FeliCaResult.of(FeliCaStatus.NO_CARD);
+        }
+        this.cache.invalidate(serviceCode);
+        byte[] raw;
+        try {
+            raw = FeliCaLib.executeRaw(this.nfcTag
+                    , this.createWritePacket(serviceCode, blockNumber, buff), this.transaction, this.interceptors);
+        } catch (FeliCaException e) {
+            return FeliCaResult.error(e);
+        }
+        if ( raw == null ) {
+            return FeliCaResult.of(FeliCaStatus.TAG_LOST);
+        }
+        if ( !isValidResponse(COMMAND_WRITE_WO_ENCRYPTION, raw) || raw.length < 12 ) {
+            return FeliCaResult.of(FeliCaStatus.INVALID_RESPONSE);
+        }
+        WriteResponse r = new WriteResponse(new CommandResponse(raw));
+        return FeliCaResult.of(r.getStatusFlag1() == 0 ? FeliCaStatus.OK : FeliCaStatus.STATUS_ERROR, r);
+    }
+    /**
+     * 認証不要領域の書き込みのコマンドパケットを生成します
+     */
+    protected CommandPacket createWritePacket(ServiceCode serviceCode, int blockNumber, byte[] buff) 
+            throws FeliCaException {
+        // コマンド 6〜7バイト + 書きだすデータ 16バイト
+        byte[] data = new byte[4 + BlockListElement.encodedLength(blockNumber) + 16];
+        data[0] = (byte) 0x01;                                // Number of Service
+        int p = serviceCode.putBytes(data, 1);                // サービスコード (little endian)
+        data[p++] = (byte) 0x01;                              // 同時書き込みブロック数
+        p = BlockListElement.encode(data, p, 0, 0, blockNumber); // ブロックリスト
+        System.arraycopy(buff, 0, data, p, buff.length > 16 ? 16 : buff.length); //書き出すデータ  (一度につき16バイト)
+        return new CommandPacket(COMMAND_WRITE_WO_ENCRYPTION, idm, data);
+    }
+    /**
+     * 相互認証を実行して認証セッションを開始します
+     * 
+     * <pre>
+     * 同じカードに対して有効な認証セッションがあり、要求したエリア/サービスが
+     * 全て認証済みの場合は、再認証せずにそのセッションを再利用します
+     * </pre>
+     * 
+     * @param authenticator 暗号処理を行う認証器をセット
+     * @param areaCodes 認証するエリアコードの配列をセット
+     * @param serviceCodes 認証するサービスコードをセット (最大16)
+     * @return AuthenticationSession 認証済みのセッションが戻ります
+     * @throws FeliCaException 認証に失敗した場合にスローされます
+     */
+    public AuthenticationSession authenticate(IFeliCaAuthenticator authenticator
+            , int[] areaCodes, ServiceCode... serviceCodes) throws FeliCaException {
+        if ( this.session != null && this.session.isValid()
+                && this.idm != null
+                && Arrays.equals(this.session.getIDm().getBytes(), this.idm.getBytes())
+                && this.session.coversArea(areaCodes) && this.session.covers(serviceCodes) ) {
+            return this.session;
+        }
+        this.session = AuthenticationSession.open(this.nfcTag, this.idm
+                , this.transaction, this.interceptors, authenticator, areaCodes, serviceCodes);
+        this.bindSession();
+        return this.session;
+    }
+    /**
+     * 現在の認証セッションを取得します
+     * @return AuthenticationSession 認証セッションが戻ります (未認証の場合はnull)
+     */
+    public AuthenticationSession getAuthenticationSession() {
+        return this.session;
+    }
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -281,9 +909,9 @@ public class FeliCaTag extends NfcTag {
        StringBuilder sb = new StringBuilder();
        sb.append("FeliCaTag \n");
        if ( this.idm != null ) 
-           sb.append(this.idm.toString()).append("\n");
+           this.idm.render(sb).append("\n");
        if ( this.pmm != null ) 
-           sb.append(this.pmm.toString()).append("\n");
+           this.pmm.render(sb).append("\n");
        return sb.toString();
     }
     
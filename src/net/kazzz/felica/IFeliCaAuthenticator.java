@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+
+/**
+ * 相互認証 (Authentication1/Authentication2) の暗号処理を抽象化したインタフェースを提供します
+ *
+ * <pre>
+ * 鍵の管理とアクセス鍵の生成はアプリケーション(又はSAM)側の責務です。
+ * 本ライブラリィはコマンドの組み立てと認証セッションの管理のみを行います
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/12
+ * @since Android API Level 9
+ *
+ */
+
+public interface IFeliCaAuthenticator {
+    /**
+     * Authentication1で送信するチャレンジ(M1c)を生成します
+     *
+     * @param idm 認証対象カードのIDmをセット
+     * @param areaCodes 認証するエリアコードの配列をセット
+     * @param serviceCodes 認証するサービスコードの配列をセット
+     * @return byte[] 8バイトのM1cが戻ります
+     * @throws FeliCaException
+     */
+    byte[] createChallenge(IDm idm, int[] areaCodes, int[] serviceCodes) throws FeliCaException;
+    /**
+     * Authentication1のレスポンス(M2c, M3c)を検証し、トランザクション鍵を確立します
+     *
+     * @param idm 認証対象カードのIDmをセット
+     * @param m1c 送信したチャレンジ(M1c)をセット
+     * @param m2c カードが返したチャレンジ応答(M2c)をセット
+     * @param m3c カードが発行したチャレンジ(M3c)をセット
+     * @return ITransactionCipher 確立したトランザクション鍵による暗号器が戻ります
+     * @throws FeliCaException カードの認証に失敗した場合にスローされます
+     */
+    ITransactionCipher establish(IDm idm, byte[] m1c, byte[] m2c, byte[] m3c) throws FeliCaException;
+
+    /**
+     * 相互認証で確立したトランザクション鍵による暗号器を抽象化したインタフェースを提供します
+     *
+     * @author Kazzz
+     * @date 2011/03/12
+     * @since Android API Level 9
+     */
+    public interface ITransactionCipher {
+        /**
+         * Authentication2で送信するチャレンジ応答(M4c)を取得します
+         * @return byte[] 8バイトのM4cが戻ります
+         */
+        byte[] getChallengeResponse();
+        /**
+         * Read/Writeコマンドのデータ部を暗号化します
+         * @param plain 平文をセット
+         * @return byte[] 暗号文が戻ります
+         * @throws FeliCaException
+         */
+        byte[] encrypt(byte[] plain) throws FeliCaException;
+        /**
+         * Read/Writeレスポンスのデータ部を復号します
+         * @param cipher 暗号文をセット
+         * @return byte[] 平文が戻ります
+         * @throws FeliCaException
+         */
+        byte[] decrypt(byte[] cipher) throws FeliCaException;
+    }
+}
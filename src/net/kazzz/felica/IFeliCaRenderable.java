@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+/**
+ * 呼び出し側が用意したバッファにデバッグ用の文字列表現を書き出すインタフェース
+ *
+ * <pre>
+ * toString()は中間の文字列を生成しますが、このインタフェースのメソッドは
+ * 渡された StringBuilderに直接追記します
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/19
+ * @since Android API Level 9
+ *
+ */
+
+public interface IFeliCaRenderable {
+    /**
+     * 複数行の詳細な文字列表現を追記します (toString()と同じ内容です)
+     * @param sb 追記先をセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    StringBuilder render(StringBuilder sb);
+    /**
+     * ログ向けの1行の簡潔な文字列表現を追記します
+     * @param sb 追記先をセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    StringBuilder renderCompact(StringBuilder sb);
+}
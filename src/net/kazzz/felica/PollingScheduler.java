@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import android.os.SystemClock;
+
+/**
+ * FeliCaPollerを専用のスレッドで周期的に実行するスケジューラを提供します
+ *
+ * <pre>
+ * カードが置かれている間と、最後の活動(カードの検出または trigger())から
+ * activeHoldMillisの間は最短間隔でポーリングします。
+ * その後はポーリング毎に間隔を backoffFactor倍し、最長間隔まで延ばします。
+ *
+ * trigger()を呼ぶと待機中でも直ちにポーリングし、最短間隔に戻ります。
+ * (ゲートの人感センサー等、外部のきっかけで応答性を上げる用途を想定しています)
+ *
+ * FeliCaPollerのリスナーはスケジューラのスレッドから呼ばれます
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/20
+ * @since Android API Level 10
+ *
+ */
+
+public class PollingScheduler implements Runnable {
+    /** 最短間隔の既定値(ミリ秒) */
+    public static final long DEFAULT_MIN_INTERVAL = 50;
+    /** 最長間隔の既定値(ミリ秒) */
+    public static final long DEFAULT_MAX_INTERVAL = 1000;
+    /** 活動後に最短間隔を維持する時間の既定値(ミリ秒) */
+    public static final long DEFAULT_ACTIVE_HOLD = 3000;
+    /** 間隔を延ばす倍率の既定値 */
+    public static final float DEFAULT_BACKOFF_FACTOR = 2.0f;
+
+    private final FeliCaPoller poller;
+    private final Object lock = new Object();
+
+    private long minInterval = DEFAULT_MIN_INTERVAL;
+    private long maxInterval = DEFAULT_MAX_INTERVAL;
+    private long activeHold = DEFAULT_ACTIVE_HOLD;
+    private float backoffFactor = DEFAULT_BACKOFF_FACTOR;
+
+    // 以下は lockで保護します
+    private long interval = DEFAULT_MIN_INTERVAL;
+    private long lastActivity;
+    private boolean triggered;
+    private boolean running;
+    private Thread thread;
+
+    /**
+     * コンストラクタ
+     * @param poller 実行するポーラーをセット
+     */
+    public PollingScheduler(FeliCaPoller poller) {
+        this.poller = poller;
+    }
+    /**
+     * ポーリング間隔の範囲をセットします
+     * @param minMillis 最短間隔(ミリ秒)をセット
+     * @param maxMillis 最長間隔(ミリ秒)をセット
+     */
+    public void setIntervals(long minMillis, long maxMillis) {
+        if ( minMillis <= 0 || maxMillis < minMillis ) {
+            throw new IllegalArgumentException("min : " + minMillis + " max : " + maxMillis);
+        }
+        synchronized ( this.lock ) {
+            this.minInterval = minMillis;
+            this.maxInterval = maxMillis;
+            this.interval = Math.max(minMillis, Math.min(maxMillis, this.interval));
+        }
+    }
+    /**
+     * 活動後に最短間隔を維持する時間をセットします
+     * @param holdMillis 維持する時間(ミリ秒)をセット
+     */
+    public void setActiveHold(long holdMillis) {
+        if ( holdMillis < 0 ) {
+            throw new IllegalArgumentException("hold : " + holdMillis);
+        }
+        synchronized ( this.lock ) {
+            this.activeHold = holdMillis;
+        }
+    }
+    /**
+     * 間隔を延ばす倍率をセットします
+     * @param factor 倍率をセット (1より大きい値)
+     */
+    public void setBackoffFactor(float factor) {
+        if ( !(factor > 1.0f) ) {
+            throw new IllegalArgumentException("factor : " + factor);
+        }
+        synchronized ( this.lock ) {
+            this.backoffFactor = factor;
+        }
+    }
+    /**
+     * 現在のポーリング間隔を取得します
+     * @return long 間隔(ミリ秒)が戻ります
+     */
+    public long getInterval() {
+        synchronized ( this.lock ) {
+            return this.interval;
+        }
+    }
+    /**
+     * スケジューラのスレッドを開始します (既に開始している場合は何もしません)
+     */
+    public void start() {
+        synchronized ( this.lock ) {
+            if ( this.running ) return;
+            this.running = true;
+            this.interval = this.minInterval;
+            this.lastActivity = SystemClock.uptimeMillis();
+            this.thread = new Thread(this, "FeliCaPollingScheduler");
+            this.thread.start();
+        }
+    }
+    /**
+     * スケジューラのスレッドを停止して終了を待ちます
+     * @throws InterruptedException 待機中に割り込まれた場合にスローされます
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized ( this.lock ) {
+            if ( !this.running ) return;
+            this.running = false;
+            t = this.thread;
+            this.thread = null;
+            this.lock.notifyAll();
+        }
+        if ( t != Thread.currentThread() ) {
+            t.join();
+        }
+        this.poller.close();
+    }
+    /**
+     * 直ちにポーリングし、最短間隔に戻します
+     *
+     * <pre>
+     * どのスレッドからでも呼び出せます
+     * </pre>
+     */
+    public void trigger() {
+        synchronized ( this.lock ) {
+            this.triggered = true;
+            this.interval = this.minInterval;
+            this.lastActivity = SystemClock.uptimeMillis();
+            this.lock.notifyAll();
+        }
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        try {
+            while ( true ) {
+                FeliCaStatus status = this.poller.poll();
+                synchronized ( this.lock ) {
+                    if ( !this.running ) return;
+                    long now = SystemClock.uptimeMillis();
+                    long wait = this.next(status == FeliCaStatus.OK || this.poller.isPresent(), now);
+                    long deadline = now + wait;
+                    while ( this.running && !this.triggered && wait > 0 ) {
+                        try {
+                            this.lock.wait(wait);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        wait = deadline - SystemClock.uptimeMillis();
+                    }
+                    this.triggered = false;
+                    if ( !this.running ) return;
+                }
+            }
+        } finally {
+            // リスナーの例外や割り込みで終了した場合も、再び start()できるように状態を戻す
+            boolean abandoned = false;
+            synchronized ( this.lock ) {
+                if ( this.thread == Thread.currentThread() ) { // stop()を経由していない
+                    this.running = false;
+                    this.thread = null;
+                    abandoned = true;
+                }
+            }
+            if ( abandoned ) {
+                this.poller.close();
+            }
+        }
+    }
+    /**
+     * ポーリングの結果から次のポーリングまでの間隔を求めます (lockを保持して呼び出します)
+     *
+     * @param active カードが応答した場合 trueをセット
+     * @param now 現在時刻(SystemClock.uptimeMillis())をセット
+     * @return long 次のポーリングまでの間隔(ミリ秒)が戻ります
+     */
+    protected long next(boolean active, long now) {
+        if ( active ) {
+            this.lastActivity = now;
+            this.interval = this.minInterval;
+        } else if ( now - this.lastActivity < this.activeHold ) {
+            this.interval = this.minInterval;
+        } else {
+            this.interval = Math.min(this.maxInterval
+                    , Math.max(this.minInterval + 1, (long) (this.interval * this.backoffFactor)));
+        }
+        return this.interval;
+    }
+}
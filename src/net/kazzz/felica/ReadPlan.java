@@ -0,0 +1,433 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
+
+/**
+ * 優先度付きの読み込み計画を提供します
+ *
+ * <pre>
+ * 読み込むサービスとブロックを優先度と共に登録し、FeliCaTag#execute(ReadPlan, IListener)で
+ * 実行します。優先度の高い(値の小さい)グループから順に、複数のサービス/ブロックを
+ * 1回の Read Without Encryptionにまとめて読み込み、読み終えたエントリから順に
+ * リスナーに通知します。グループを読み終えると onPriorityCompleted()が呼ばれるため、
+ * 改札機等では必須のグループ(残高、入出場記録等)を読み終えた時点で判定を開始できます。
+ *
+ * カードが離れた場合、または期限(TransactionContext)を超過した場合は、
+ * その時点で残りのエントリを全て失敗として通知して中断します。
+ * PRIORITY_CRITICAL以外のグループは、カード取引の予算が無い場合は通信せずに SKIPPEDとします
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/22
+ * @since Android API Level 10
+ *
+ */
+
+public final class ReadPlan {
+    /** 必須 (予算に関わらず読み込みます) */
+    public static final int PRIORITY_CRITICAL = 0;
+    /** 通常 */
+    public static final int PRIORITY_NORMAL = 1;
+    /** 省略可能 */
+    public static final int PRIORITY_OPTIONAL = 2;
+    /** 1回のコマンドで読み込むブロック数の既定値 */
+    public static final int DEFAULT_MAX_BLOCKS = 15;
+    /** 1回のコマンドで指定できるサービス数 */
+    private static final int MAX_SERVICES = 16;
+
+    /**
+     * 読み込み結果を受け取るリスナーを定義します
+     */
+    public interface IListener {
+        /**
+         * エントリのブロックを全て読み終えた時に呼ばれます
+         * @param entry 読み込んだエントリが渡されます
+         * @param blockData 読み込んだデータ (16バイト x ブロック数) が渡されます
+         */
+        void onRead(Entry entry, byte[] blockData);
+        /**
+         * エントリの読み込みに失敗した(または省略した)時に呼ばれます
+         * @param entry 失敗したエントリが渡されます
+         * @param status 失敗の理由が渡されます (STATUS_ERROR, SKIPPED, TAG_LOST等)
+         */
+        void onFailed(Entry entry, FeliCaStatus status);
+        /**
+         * 優先度のグループの全エントリを処理し終えた時に呼ばれます
+         * @param priority 処理し終えた優先度が渡されます
+         */
+        void onPriorityCompleted(int priority);
+    }
+    /**
+     * 読み込み計画のエントリを提供します
+     */
+    public static final class Entry {
+        final String name;
+        final int priority;
+        final ServiceCode serviceCode;
+        final int[] blockNumbers;
+
+        Entry(String name, int priority, ServiceCode serviceCode, int[] blockNumbers) {
+            this.name = name;
+            this.priority = priority;
+            this.serviceCode = serviceCode;
+            this.blockNumbers = blockNumbers;
+        }
+        /**
+         * エントリの名前を取得します
+         * @return String 名前が戻ります
+         */
+        public String getName() {
+            return this.name;
+        }
+        /**
+         * 優先度を取得します
+         * @return int 優先度が戻ります
+         */
+        public int getPriority() {
+            return this.priority;
+        }
+        /**
+         * サービスコードを取得します
+         * @return ServiceCode サービスコードが戻ります
+         */
+        public ServiceCode getServiceCode() {
+            return this.serviceCode;
+        }
+        /**
+         * 読み込むブロックの番号を取得します
+         * @return int[] ブロック番号の複製が戻ります
+         */
+        public int[] getBlockNumbers() {
+            return this.blockNumbers.clone();
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "ReadPlan.Entry " + this.name + " priority=" + this.priority
+                + " service=" + Integer.toHexString(this.serviceCode.getCode())
+                + " blocks=" + Arrays.toString(this.blockNumbers);
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private int maxBlocks = DEFAULT_MAX_BLOCKS;
+
+    /**
+     * エントリを追加します
+     *
+     * @param priority 優先度をセット (0以上、小さいほど先に読み込みます)
+     * @param name エントリの名前をセット
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers 読み込むブロックの番号 (0〜65535)をセット
+     * @return ReadPlan この読み込み計画が戻ります
+     */
+    public ReadPlan add(int priority, String name, ServiceCode serviceCode, int... blockNumbers) {
+        if ( priority < 0 || blockNumbers.length == 0 ) {
+            throw new IllegalArgumentException("priority : " + priority + " blocks : " + blockNumbers.length);
+        }
+        this.entries.add(new Entry(name, priority, serviceCode, blockNumbers.clone()));
+        return this;
+    }
+    /**
+     * 必須のエントリを追加します
+     * @see #add(int, String, ServiceCode, int...)
+     */
+    public ReadPlan critical(String name, ServiceCode serviceCode, int... blockNumbers) {
+        return this.add(PRIORITY_CRITICAL, name, serviceCode, blockNumbers);
+    }
+    /**
+     * 省略可能なエントリを追加します
+     * @see #add(int, String, ServiceCode, int...)
+     */
+    public ReadPlan optional(String name, ServiceCode serviceCode, int... blockNumbers) {
+        return this.add(PRIORITY_OPTIONAL, name, serviceCode, blockNumbers);
+    }
+    /**
+     * 1回のコマンドで読み込むブロック数の上限をセットします
+     * @param maxBlocks ブロック数をセット (1〜15、カードの仕様に合わせてください)
+     */
+    public void setMaxBlocksPerCommand(int maxBlocks) {
+        if ( maxBlocks < 1 || maxBlocks > DEFAULT_MAX_BLOCKS ) {
+            throw new IllegalArgumentException("maxBlocks : " + maxBlocks);
+        }
+        this.maxBlocks = maxBlocks;
+    }
+    /**
+     * エントリの一覧を取得します
+     * @return List<Entry> 登録順のエントリの一覧が戻ります (変更できません)
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+    /**
+     * エントリ数を取得します
+     * @return int エントリ数が戻ります
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * 読み込み計画を実行します (FeliCaTag#execute(ReadPlan, IListener)から呼ばれます)
+     */
+    FeliCaStatus execute(FeliCaTag tag, IListener listener) {
+        Entry[] sorted = this.entries.toArray(new Entry[this.entries.size()]);
+        Arrays.sort(sorted, new Comparator<Entry>() { // 安定ソートなので同じ優先度は登録順
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.priority < rhs.priority ? -1 : ( lhs.priority == rhs.priority ? 0 : 1 );
+            }
+        });
+        int start = 0;
+        while ( start < sorted.length ) {
+            int end = start;
+            while ( end < sorted.length && sorted[end].priority == sorted[start].priority ) end++;
+            FeliCaStatus status = new Group(tag, sorted, start, end, listener).run();
+            if ( status != FeliCaStatus.OK ) {
+                for ( int i = end; i < sorted.length; i++ ) {
+                    listener.onFailed(sorted[i], status);
+                }
+                return status;
+            }
+            listener.onPriorityCompleted(sorted[start].priority);
+            start = end;
+        }
+        return FeliCaStatus.OK;
+    }
+
+    /**
+     * 同じ優先度のエントリをまとめて読み込みます
+     */
+    private final class Group {
+        private final FeliCaTag tag;
+        private final Entry[] entries;
+        private final IListener listener;
+        private final boolean optional;
+        private final byte[][] data;   // エントリ毎の読み込み結果
+        private final int[] filled;    // エントリ毎の読み込み済みブロック数
+        private final boolean[] done;  // 通知済み
+        // (エントリ, ブロック)を平坦化した読み込み順
+        private final int[] owner;
+        private final int[] index;
+
+        Group(FeliCaTag tag, Entry[] sorted, int start, int end, IListener listener) {
+            this.tag = tag;
+            this.entries = Arrays.copyOfRange(sorted, start, end);
+            this.listener = listener;
+            this.optional = sorted[start].priority != PRIORITY_CRITICAL;
+            int n = this.entries.length;
+            this.data = new byte[n][];
+            this.filled = new int[n];
+            this.done = new boolean[n];
+            int total = 0;
+            for ( Entry e : this.entries ) total += e.blockNumbers.length;
+            this.owner = new int[total];
+            this.index = new int[total];
+            int p = 0;
+            for ( int i = 0; i < n; i++ ) {
+                for ( int j = 0; j < this.entries[i].blockNumbers.length; j++, p++ ) {
+                    this.owner[p] = i;
+                    this.index[p] = j;
+                }
+            }
+        }
+        /**
+         * グループを読み込みます
+         * @return FeliCaStatus 続行できる場合は OK、中断する場合はその理由が戻ります
+         */
+        FeliCaStatus run() {
+            // セッションキャッシュにあるエントリは通信せずに通知する
+            for ( int i = 0; i < this.entries.length; i++ ) {
+                this.readFromCache(i);
+            }
+            int pos = 0;
+            int isolateUntil = 0; // この位置まではエントリ毎に読み込む
+            int[] members = new int[MAX_SERVICES]; // バッチに含むエントリ (サービス数はエントリ数以下)
+            while ( true ) {
+                // 通知済みのエントリのブロックを読み飛ばす
+                while ( pos < this.owner.length && this.done[this.owner[pos]] ) pos++;
+                if ( pos >= this.owner.length ) return FeliCaStatus.OK;
+
+                // バッチを組み立てる
+                boolean isolate = pos < isolateUntil;
+                int memberCount = 0;
+                int end = pos;
+                int blocks = 0;
+                while ( end < this.owner.length && blocks < ReadPlan.this.maxBlocks ) {
+                    int o = this.owner[end];
+                    if ( this.done[o] ) { end++; continue; }
+                    if ( isolate && o != this.owner[pos] ) break;
+                    if ( indexOfMember(members, memberCount, o) < 0 ) {
+                        if ( memberCount == MAX_SERVICES ) break;
+                        members[memberCount++] = o;
+                    }
+                    blocks++;
+                    end++;
+                }
+                if ( this.optional && this.tag.transaction != null
+                        && !this.tag.transaction.canAfford(COMMAND_READ_WO_ENCRYPTION, blocks) ) {
+                    this.failRemaining(FeliCaStatus.SKIPPED);
+                    return FeliCaStatus.OK;
+                }
+                FeliCaStatus status = this.read(pos, end, blocks, members, memberCount);
+                if ( status == FeliCaStatus.STATUS_ERROR && !isolate && this.countEntries(pos, end) > 1 ) {
+                    isolateUntil = end; // どのエントリがエラーか分からないので 1エントリずつ読み直す
+                    continue;
+                }
+                if ( status == FeliCaStatus.STATUS_ERROR || status == FeliCaStatus.INVALID_RESPONSE ) {
+                    this.failRange(pos, end, status);
+                } else if ( status != FeliCaStatus.OK ) {
+                    this.failRemaining(status);
+                    return status;  // カードが離れた、期限切れ等は中断する
+                }
+                pos = end;
+            }
+        }
+        /**
+         * バッチを1回のコマンドで読み込みます
+         */
+        private FeliCaStatus read(int from, int to, int blockCount
+                , int[] members, int memberCount) {
+            ServiceCode[] serviceCodes = new ServiceCode[memberCount];
+            int[] orders = new int[blockCount];
+            int[] blockNumbers = new int[blockCount];
+            // 同じサービスコードのエントリはサービスコードリストを共有する
+            int distinct = 0;
+            int[] orderOf = new int[memberCount];
+            for ( int i = 0; i < memberCount; i++ ) {
+                ServiceCode sc = this.entries[members[i]].serviceCode;
+                int found = -1;
+                for ( int j = 0; j < distinct; j++ ) {
+                    if ( serviceCodes[j].equals(sc) ) { found = j; break; }
+                }
+                if ( found < 0 ) {
+                    serviceCodes[distinct] = sc;
+                    found = distinct++;
+                }
+                orderOf[i] = found;
+            }
+            int b = 0;
+            for ( int p = from; p < to; p++ ) {
+                int o = this.owner[p];
+                if ( this.done[o] ) continue;
+                orders[b] = orderOf[indexOfMember(members, memberCount, o)];
+                blockNumbers[b++] = this.entries[o].blockNumbers[this.index[p]];
+            }
+            byte[] raw;
+            try {
+                raw = FeliCaLib.executeRaw(this.tag.nfcTag
+                        , this.tag.createReadPacket(Arrays.copyOf(serviceCodes, distinct), orders, blockNumbers)
+                        , this.tag.transaction, this.tag.interceptors);
+            } catch (FeliCaException e) {
+                return FeliCaResult.error(e).getStatus();
+            }
+            if ( raw == null ) return FeliCaStatus.TAG_LOST;
+            if ( raw.length < 12 || raw[1] != FeliCaLib.RESPONSE_READ_WO_ENCRYPTION ) {
+                return FeliCaStatus.INVALID_RESPONSE;
+            }
+            if ( raw[10] != 0 ) return FeliCaStatus.STATUS_ERROR;
+            if ( raw.length < 13 + blockCount * TagSessionCache.BLOCK_SIZE ) {
+                return FeliCaStatus.INVALID_RESPONSE;
+            }
+            int offset = 13;
+            for ( int p = from; p < to; p++ ) {
+                int o = this.owner[p];
+                if ( this.done[o] ) continue;
+                if ( this.data[o] == null ) {
+                    this.data[o] = new byte[this.entries[o].blockNumbers.length * TagSessionCache.BLOCK_SIZE];
+                }
+                System.arraycopy(raw, offset, this.data[o]
+                        , this.index[p] * TagSessionCache.BLOCK_SIZE, TagSessionCache.BLOCK_SIZE);
+                offset += TagSessionCache.BLOCK_SIZE;
+                if ( ++this.filled[o] == this.entries[o].blockNumbers.length ) {
+                    this.complete(o);
+                }
+            }
+            return FeliCaStatus.OK;
+        }
+        /**
+         * エントリがセッションキャッシュにある場合は通知します
+         */
+        private void readFromCache(int i) {
+            Entry e = this.entries[i];
+            if ( !this.tag.cacheEnabled || !this.tag.cache.containsBlocks(e.serviceCode, e.blockNumbers) ) {
+                return;
+            }
+            byte[] d = new byte[e.blockNumbers.length * TagSessionCache.BLOCK_SIZE];
+            for ( int j = 0; j < e.blockNumbers.length; j++ ) {
+                System.arraycopy(this.tag.cache.getBlock(e.serviceCode, e.blockNumbers[j]), 0
+                        , d, j * TagSessionCache.BLOCK_SIZE, TagSessionCache.BLOCK_SIZE);
+            }
+            this.done[i] = true;
+            this.listener.onRead(e, d);
+        }
+        /**
+         * 読み終えたエントリをキャッシュに保持して通知します
+         */
+        private void complete(int i) {
+            Entry e = this.entries[i];
+            if ( this.tag.cacheEnabled ) {
+                this.tag.cache.putBlocks(e.serviceCode, e.blockNumbers, this.data[i]);
+            }
+            this.done[i] = true;
+            this.listener.onRead(e, this.data[i]);
+        }
+        private void fail(int i, FeliCaStatus status) {
+            if ( this.done[i] ) return;
+            this.done[i] = true;
+            this.listener.onFailed(this.entries[i], status);
+        }
+        private void failRange(int from, int to, FeliCaStatus status) {
+            for ( int p = from; p < to; p++ ) {
+                this.fail(this.owner[p], status);
+            }
+        }
+        private void failRemaining(FeliCaStatus status) {
+            for ( int i = 0; i < this.entries.length; i++ ) {
+                this.fail(i, status);
+            }
+        }
+        private int countEntries(int from, int to) {
+            int count = 0;
+            int last = -1;
+            for ( int p = from; p < to; p++ ) {
+                int o = this.owner[p];
+                if ( this.done[o] || o == last ) continue;
+                last = o;
+                count++;
+            }
+            return count;
+        }
+    }
+    /**
+     * バッチ内のエントリの位置を検索します
+     */
+    private static int indexOfMember(int[] members, int count, int entry) {
+        for ( int i = 0; i < count; i++ ) {
+            if ( members[i] == entry ) return i;
+        }
+        return -1;
+    }
+}
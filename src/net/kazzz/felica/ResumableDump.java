@@ -0,0 +1,360 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
+import net.kazzz.felica.lib.Util;
+import android.os.SystemClock;
+
+/**
+ * カードが途中で離れても、次のタッチで続きから読み込めるダンプを提供します
+ *
+ * <pre>
+ * 読み込むサービスとブロックの範囲を登録し、カードがタッチされる度に run()を呼び出します。
+ * 読み込み済みのブロックは IDm毎に保持し、同じカードが再びタッチされた場合は
+ * 未読のブロックだけを読み込みます。最後に読み込めた時刻から expiryMillisを過ぎた状態は破棄し、
+ * 最初から読み直します。
+ *
+ * このクラスはスレッドセーフではありません
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/23
+ * @since Android API Level 10
+ *
+ */
+
+public final class ResumableDump {
+    /** 状態を保持する期間の既定値(ミリ秒) */
+    public static final long DEFAULT_EXPIRY = 5 * 60 * 1000;
+    /** 状態を保持するカード数の既定値 */
+    public static final int DEFAULT_MAX_CARDS = 16;
+
+    /**
+     * 1枚のカードのダンプの状態
+     */
+    private static final class State {
+        final byte[][] data;
+        final BitSet[] read;    // 読み込み済み
+        final BitSet[] failed;  // ステータスエラーで読めなかった
+        final BitSet[] suspect; // まとめて読めなかった (1ブロックずつ読み直す)
+        int done;
+        long updated;
+
+        State(int[] counts, long now) {
+            this.data = new byte[counts.length][];
+            this.read = new BitSet[counts.length];
+            this.failed = new BitSet[counts.length];
+            this.suspect = new BitSet[counts.length];
+            for ( int i = 0; i < counts.length; i++ ) {
+                this.data[i] = new byte[counts[i] * TagSessionCache.BLOCK_SIZE];
+                this.read[i] = new BitSet(counts[i]);
+                this.failed[i] = new BitSet(counts[i]);
+                this.suspect[i] = new BitSet(counts[i]);
+            }
+            this.updated = now;
+        }
+        boolean isDone(int service, int offset) {
+            return this.read[service].get(offset) || this.failed[service].get(offset);
+        }
+        boolean hasSuspect() {
+            for ( BitSet b : this.suspect ) {
+                if ( !b.isEmpty() ) return true;
+            }
+            return false;
+        }
+    }
+
+    private final List<ServiceCode> serviceCodes = new ArrayList<ServiceCode>();
+    private final List<int[]> ranges = new ArrayList<int[]>(); // {先頭ブロック番号, ブロック数}
+    private final HashMap<Long, State> states = new HashMap<Long, State>();
+    private final long expiryMillis;
+    private final int maxCards;
+    private int totalBlocks;
+    private int maxBlocks = ReadPlan.DEFAULT_MAX_BLOCKS;
+
+    /**
+     * コンストラクタ
+     */
+    public ResumableDump() {
+        this(DEFAULT_EXPIRY, DEFAULT_MAX_CARDS);
+    }
+    /**
+     * コンストラクタ
+     *
+     * @param expiryMillis 最後に読み込めた時刻から状態を保持する期間(ミリ秒)をセット
+     * @param maxCards 状態を保持するカード数の上限をセット (超えた場合は最も古い状態を破棄します)
+     */
+    public ResumableDump(long expiryMillis, int maxCards) {
+        if ( expiryMillis <= 0 || maxCards <= 0 ) {
+            throw new IllegalArgumentException("expiry : " + expiryMillis + " maxCards : " + maxCards);
+        }
+        this.expiryMillis = expiryMillis;
+        this.maxCards = maxCards;
+    }
+    /**
+     * 読み込むブロックの範囲を追加します (状態を保持しているカードがある場合は追加できません)
+     *
+     * @param serviceCode サービスコードをセット
+     * @param firstBlock 先頭のブロック番号をセット
+     * @param blockCount ブロック数をセット
+     * @return ResumableDump このダンプが戻ります
+     */
+    public ResumableDump add(ServiceCode serviceCode, int firstBlock, int blockCount) {
+        if ( firstBlock < 0 || blockCount <= 0 || firstBlock + blockCount > 0x10000 ) {
+            throw new IllegalArgumentException("first : " + firstBlock + " count : " + blockCount);
+        }
+        if ( !this.states.isEmpty() ) {
+            throw new IllegalStateException("dump is in progress");
+        }
+        this.serviceCodes.add(serviceCode);
+        this.ranges.add(new int[] {firstBlock, blockCount});
+        this.totalBlocks += blockCount;
+        return this;
+    }
+    /**
+     * 1回のコマンドで読み込むブロック数の上限をセットします
+     * @param maxBlocks ブロック数をセット (1〜15)
+     * @see ReadPlan#setMaxBlocksPerCommand(int)
+     */
+    public void setMaxBlocksPerCommand(int maxBlocks) {
+        if ( maxBlocks < 1 || maxBlocks > ReadPlan.DEFAULT_MAX_BLOCKS ) {
+            throw new IllegalArgumentException("maxBlocks : " + maxBlocks);
+        }
+        this.maxBlocks = maxBlocks;
+    }
+    /**
+     * タッチされているカードの未読のブロックを読み込みます
+     *
+     * <pre>
+     * カードが離れた場合はそれまでに読み込んだブロックを保持して TAG_LOSTが戻ります。
+     * 次に同じカードで呼び出すと続きから読み込みます。
+     * 複数のブロックをまとめて読めなかった場合は 1回の run()につき1度だけ 1ブロックずつ読み直し、
+     * ステータスエラーになったブロックだけを読めないと確定します
+     * (それ以外の理由で読めなかったブロックは次の run()で読み直します)
+     * </pre>
+     *
+     * @param tag ポーリング済みのタグをセット
+     * @return FeliCaStatus 全てのブロックを読み込んだ場合は OK、読めないブロックがあった場合は
+     *          STATUS_ERROR、不正な応答で未読のブロックが残った場合は INVALID_RESPONSE、
+     *          中断した場合はその理由(TAG_LOST等)が戻ります
+     */
+    public FeliCaStatus run(FeliCaTag tag) {
+        if ( tag.idm == null ) return FeliCaStatus.NO_CARD;
+        final long now = SystemClock.uptimeMillis();
+        this.purgeExpired(now);
+        Long key = toKey(tag.idm);
+        State s = this.states.get(key);
+        if ( s == null ) {
+            s = new State(this.counts(), now);
+            this.evictIfFull();
+            this.states.put(key, s);
+        }
+        if ( s.done == this.totalBlocks ) return this.result(s);
+
+        final Map<ReadPlan.Entry, Integer> owners = new HashMap<ReadPlan.Entry, Integer>();
+        final State state = s;
+        ReadPlan.IListener listener = new ReadPlan.IListener() {
+            @Override
+            public void onRead(ReadPlan.Entry entry, byte[] blockData) {
+                int i = owners.get(entry);
+                int first = ResumableDump.this.ranges.get(i)[0];
+                int[] blocks = entry.blockNumbers;
+                for ( int j = 0; j < blocks.length; j++ ) {
+                    int offset = blocks[j] - first;
+                    System.arraycopy(blockData, j * TagSessionCache.BLOCK_SIZE, state.data[i]
+                            , offset * TagSessionCache.BLOCK_SIZE, TagSessionCache.BLOCK_SIZE);
+                    state.read[i].set(offset);
+                    state.suspect[i].clear(offset);
+                }
+                state.done += blocks.length;
+                state.updated = SystemClock.uptimeMillis();
+            }
+            @Override
+            public void onFailed(ReadPlan.Entry entry, FeliCaStatus status) {
+                if ( status != FeliCaStatus.STATUS_ERROR ) return; // 次のタッチで読み直す
+                int i = owners.get(entry);
+                int first = ResumableDump.this.ranges.get(i)[0];
+                if ( entry.blockNumbers.length > 1 ) {
+                    // どのブロックが読めないのか分からないため、1ブロックずつ読み直す
+                    for ( int b : entry.blockNumbers ) {
+                        state.suspect[i].set(b - first);
+                    }
+                    return;
+                }
+                int offset = entry.blockNumbers[0] - first;
+                state.failed[i].set(offset);
+                state.suspect[i].clear(offset);
+                state.done++;
+            }
+            @Override
+            public void onPriorityCompleted(int priority) {
+            }
+        };
+        FeliCaStatus status;
+        int pass = 0;
+        do {
+            owners.clear();
+            status = tag.execute(this.createPlan(s, owners), listener);
+        } while ( status == FeliCaStatus.OK && s.hasSuspect() && ++pass < 2 ); // 読み直しは 1回だけ
+        return status == FeliCaStatus.OK ? this.result(s) : status;
+    }
+    /**
+     * 未読のブロックを連続する範囲毎に ReadPlanのエントリにします (読み直すブロックは 1ブロックずつ)
+     */
+    private ReadPlan createPlan(State s, Map<ReadPlan.Entry, Integer> owners) {
+        ReadPlan plan = new ReadPlan();
+        plan.setMaxBlocksPerCommand(this.maxBlocks);
+        int[] chunk = new int[this.maxBlocks];
+        for ( int i = 0; i < this.ranges.size(); i++ ) {
+            int first = this.ranges.get(i)[0];
+            int count = this.ranges.get(i)[1];
+            int n = 0;
+            for ( int j = 0; j <= count; j++ ) {
+                boolean pending = j < count && !s.isDone(i, j);
+                boolean single = pending && s.suspect[i].get(j);
+                if ( pending && !single ) chunk[n++] = first + j;
+                if ( n > 0 && ( !pending || single || n == chunk.length ) ) {
+                    int[] blocks = new int[n];
+                    System.arraycopy(chunk, 0, blocks, 0, n);
+                    plan.critical(null, this.serviceCodes.get(i), blocks);
+                    owners.put(plan.getEntries().get(plan.size() - 1), i);
+                    n = 0;
+                }
+                if ( single ) {
+                    plan.critical(null, this.serviceCodes.get(i), first + j);
+                    owners.put(plan.getEntries().get(plan.size() - 1), i);
+                }
+            }
+        }
+        return plan;
+    }
+    /**
+     * 全てのブロックを読み込んだ(または読めないと確定した)か否かを検査します
+     * @param idm カードの IDmをセット
+     * @return boolean 完了している場合 trueが戻ります
+     */
+    public boolean isComplete(IDm idm) {
+        State s = this.states.get(toKey(idm));
+        return s != null && s.done == this.totalBlocks;
+    }
+    /**
+     * 読み込み済み(または読めないと確定した)のブロック数を取得します
+     * @param idm カードの IDmをセット
+     * @return int ブロック数が戻ります (状態が無い場合は 0)
+     */
+    public int getProgress(IDm idm) {
+        State s = this.states.get(toKey(idm));
+        return s != null ? s.done : 0;
+    }
+    /**
+     * 読み込むブロックの総数を取得します
+     * @return int ブロック数が戻ります
+     */
+    public int getTotalBlocks() {
+        return this.totalBlocks;
+    }
+    /**
+     * 範囲のデータを取得します
+     *
+     * @param idm カードの IDmをセット
+     * @param index 範囲の番号(追加した順、0オリジン)をセット
+     * @return byte[] データ(16バイト x ブロック数)の複製が戻ります。未読のブロックは 0で埋められます
+     *          (状態が無い場合は null)
+     */
+    public byte[] getData(IDm idm, int index) {
+        State s = this.states.get(toKey(idm));
+        return s != null ? s.data[index].clone() : null;
+    }
+    /**
+     * 範囲のブロックが読み込み済みか否かを検査します
+     *
+     * @param idm カードの IDmをセット
+     * @param index 範囲の番号をセット
+     * @param blockNumber ブロック番号をセット
+     * @return boolean 読み込み済みの場合 trueが戻ります
+     */
+    public boolean isRead(IDm idm, int index, int blockNumber) {
+        State s = this.states.get(toKey(idm));
+        return s != null && s.read[index].get(blockNumber - this.ranges.get(index)[0]);
+    }
+    /**
+     * カードの状態を破棄します (ダンプを取り出した後に呼び出します)
+     * @param idm カードの IDmをセット
+     */
+    public void remove(IDm idm) {
+        this.states.remove(toKey(idm));
+    }
+    /**
+     * 全てのカードの状態を破棄します
+     */
+    public void clear() {
+        this.states.clear();
+    }
+    /**
+     * 期限切れの状態を破棄します
+     * @param now 現在時刻(SystemClock.uptimeMillis())をセット
+     */
+    public void purgeExpired(long now) {
+        Iterator<State> i = this.states.values().iterator();
+        while ( i.hasNext() ) {
+            if ( now - i.next().updated > this.expiryMillis ) {
+                i.remove();
+            }
+        }
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ResumableDump ranges=" + this.ranges.size() + " blocks=" + this.totalBlocks
+            + " cards=" + this.states.size();
+    }
+    private FeliCaStatus result(State s) {
+        for ( BitSet f : s.failed ) {
+            if ( !f.isEmpty() ) return FeliCaStatus.STATUS_ERROR;
+        }
+        return s.done == this.totalBlocks ? FeliCaStatus.OK : FeliCaStatus.INVALID_RESPONSE;
+    }
+    private int[] counts() {
+        int[] counts = new int[this.ranges.size()];
+        for ( int i = 0; i < counts.length; i++ ) {
+            counts[i] = this.ranges.get(i)[1];
+        }
+        return counts;
+    }
+    private void evictIfFull() {
+        if ( this.states.size() < this.maxCards ) return;
+        Long oldest = null;
+        long min = Long.MAX_VALUE;
+        for ( Map.Entry<Long, State> e : this.states.entrySet() ) {
+            if ( e.getValue().updated < min ) {
+                min = e.getValue().updated;
+                oldest = e.getKey();
+            }
+        }
+        this.states.remove(oldest);
+    }
+    private static Long toKey(IDm idm) {
+        byte[] b = idm.getBytes();
+        return Long.valueOf(((long) Util.getU32(b, 0) << 32) | (Util.getU32(b, 4) & 0xffffffffL));
+    }
+}
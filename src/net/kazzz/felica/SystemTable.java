@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.FeliCaLib.PMm;
+import net.kazzz.felica.lib.Util;
+
+/**
+ * 複数のシステムを持つカードの、システム毎の IDm/PMmを保持するクラスを提供します
+ *
+ * <pre>
+ * FeliCaのカードはシステム毎に IDmを持ち、IDmの先頭バイトの上位4ビットが
+ * システム番号(Request System Codeの応答順、0〜15)を表します。
+ * 一度ポーリング(または導出)したシステムは、このテーブルから IDm/PMmを引くことで
+ * 再ポーリングせずに切り替えることができます
+ *
+ * このクラスはスレッドセーフではありません
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/21
+ * @since Android API Level 10
+ *
+ */
+
+public final class SystemTable {
+    /** システム数の上限 */
+    public static final int MAX_SYSTEMS = 16;
+
+    private final int[] systemCodes = new int[MAX_SYSTEMS];
+    private final IDm[] idms = new IDm[MAX_SYSTEMS];
+    private final PMm[] pmms = new PMm[MAX_SYSTEMS];
+
+    /**
+     * コンストラクタ
+     */
+    public SystemTable() {
+        this.clear();
+    }
+    /**
+     * 保持している内容を全て破棄します
+     */
+    public void clear() {
+        for ( int i = 0; i < MAX_SYSTEMS; i++ ) {
+            this.systemCodes[i] = -1;
+            this.idms[i] = null;
+            this.pmms[i] = null;
+        }
+    }
+    /**
+     * システムを登録します
+     *
+     * @param systemCode システムコードをセット (不明な場合は -1)
+     * @param idm システムの IDmをセット (システム番号は IDmから求めます)
+     * @param pmm システムの PMmをセット
+     * @return int 登録したシステム番号が戻ります
+     */
+    public int put(int systemCode, IDm idm, PMm pmm) {
+        int n = systemNumberOf(idm);
+        if ( systemCode >= 0 ) {
+            int old = this.indexOf(systemCode);
+            if ( old >= 0 && old != n ) {
+                this.systemCodes[old] = -1; // 同じシステムコードを別の番号で保持しない
+            }
+            this.systemCodes[n] = systemCode;
+        }
+        this.idms[n] = idm;
+        this.pmms[n] = pmm;
+        return n;
+    }
+    /**
+     * システムコードからシステム番号を検索します
+     *
+     * @param systemCode システムコードをセット
+     * @return int システム番号が戻ります (登録されていない場合は -1)
+     */
+    public int indexOf(int systemCode) {
+        for ( int i = 0; i < MAX_SYSTEMS; i++ ) {
+            if ( this.systemCodes[i] == systemCode ) return i;
+        }
+        return -1;
+    }
+    /**
+     * システム番号のシステムコードを取得します
+     * @param systemNumber システム番号をセット
+     * @return int システムコードが戻ります (不明な場合は -1)
+     */
+    public int getSystemCode(int systemNumber) {
+        return this.systemCodes[systemNumber];
+    }
+    /**
+     * システム番号の IDmを取得します
+     * @param systemNumber システム番号をセット
+     * @return IDm IDmが戻ります (登録されていない場合は null)
+     */
+    public IDm getIDm(int systemNumber) {
+        return this.idms[systemNumber];
+    }
+    /**
+     * システム番号の PMmを取得します
+     * @param systemNumber システム番号をセット
+     * @return PMm PMmが戻ります (登録されていない場合は null)
+     */
+    public PMm getPMm(int systemNumber) {
+        return this.pmms[systemNumber];
+    }
+    /**
+     * 登録されているシステム数を取得します
+     * @return int システム数が戻ります
+     */
+    public int size() {
+        int count = 0;
+        for ( IDm idm : this.idms ) {
+            if ( idm != null ) count++;
+        }
+        return count;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SystemTable \n");
+        for ( int i = 0; i < MAX_SYSTEMS; i++ ) {
+            if ( this.idms[i] == null ) continue;
+            sb.append(" [").append(i).append("] システムコード : ");
+            if ( this.systemCodes[i] >= 0 ) {
+                Util.appendHex(sb, (byte) (this.systemCodes[i] >> 8));
+                Util.appendHex(sb, (byte) this.systemCodes[i]);
+            } else {
+                sb.append("----");
+            }
+            this.idms[i].renderCompact(sb.append(' ')).append("\n");
+        }
+        return sb.toString();
+    }
+    /**
+     * IDmからシステム番号(先頭バイトの上位4ビット)を取得します
+     *
+     * @param idm IDmをセット
+     * @return int システム番号が戻ります
+     */
+    public static int systemNumberOf(IDm idm) {
+        return (idm.getBytes()[0] >> 4) & 0x0f;
+    }
+    /**
+     * IDmのシステム番号を置き換えた IDmを生成します
+     *
+     * @param idm 元の IDmをセット
+     * @param systemNumber システム番号をセット (0〜15)
+     * @return IDm システム番号を置き換えた IDmが戻ります
+     */
+    public static IDm withSystemNumber(IDm idm, int systemNumber) {
+        if ( systemNumber < 0 || systemNumber >= MAX_SYSTEMS ) {
+            throw new IllegalArgumentException("systemNumber : " + systemNumber);
+        }
+        byte[] bytes = idm.getBytes();
+        bytes[0] = (byte) ((bytes[0] & 0x0f) | (systemNumber << 4));
+        return new IDm(bytes);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
+import net.kazzz.felica.lib.FeliCaLib.SystemCode;
+
+/**
+ * 1枚のカードとのセッションの間、冪等なコマンドの結果を保持するキャッシュを提供します
+ *
+ * <pre>
+ * Request System Code、Search Service Codeの結果と、認証不要で読み込んだブロックを
+ * カード毎に保持します。カードが交換された/離れた場合は全て破棄します。
+ * IDmのシステム番号(先頭バイトの上位4ビット)だけが異なる場合は同じカードの別システムとみなし、
+ * サービスコードの一覧とブロックはシステム毎に保持します。
+ *
+ * ブロックはサービス番号(サービスコードの上位10ビット)とブロック番号で保持するため、
+ * 同じサービスを別の属性(RO/RW)のサービスコードで読み込んでも共有されます。
+ * 書き込みを行った場合は、そのサービスのブロックを全て破棄します
+ * (サイクリックサービスは書き込みによって全レコードの位置が移動するため)
+ *
+ * このクラスはスレッドセーフではありません
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/21
+ * @since Android API Level 10
+ *
+ */
+
+public final class TagSessionCache {
+    /** ブロックのサイズ */
+    public static final int BLOCK_SIZE = 16;
+
+    private static final long SYSTEM_MASK = 0xf0L << 56;
+
+    private long card;     // システム番号を除いた IDm
+    private int system;    // 現在のシステム番号
+    private boolean bound;
+    private SystemCode[] systemCodes;
+    private final ServiceCode[][] serviceCodes = new ServiceCode[SystemTable.MAX_SYSTEMS][];
+    private final HashMap<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+
+    /**
+     * キャッシュの対象とするカードをセットします
+     *
+     * <pre>
+     * 以前と異なるカードの場合(nullを含む)、保持している内容を全て破棄します。
+     * 同じカードの別システムの場合は、内容を保持したまま現在のシステムを切り替えます
+     * </pre>
+     *
+     * @param idm カードの IDmをセット (カードが無い場合は null)
+     * @return boolean 内容を破棄した場合 trueが戻ります
+     */
+    public boolean bind(IDm idm) {
+        if ( idm == null ) {
+            boolean cleared = this.bound;
+            this.clear();
+            this.bound = false;
+            return cleared;
+        }
+        long key = toLong(idm.getBytes());
+        this.system = (int) (key >>> 60);
+        if ( this.bound && this.card == (key & ~SYSTEM_MASK) ) return false;
+        this.clear();
+        this.card = key & ~SYSTEM_MASK;
+        this.bound = true;
+        return true;
+    }
+    /**
+     * 保持している内容を全て破棄します
+     */
+    public void clear() {
+        this.systemCodes = null;
+        for ( int i = 0; i < this.serviceCodes.length; i++ ) {
+            this.serviceCodes[i] = null;
+        }
+        this.blocks.clear();
+    }
+    /**
+     * 保持しているシステムコードの一覧を取得します
+     * @return SystemCode[] 一覧の複製が戻ります (保持していない場合は null)
+     */
+    public SystemCode[] getSystemCodes() {
+        return this.systemCodes != null ? this.systemCodes.clone() : null;
+    }
+    /**
+     * システムコードの一覧を保持します
+     * @param systemCodes 一覧をセット
+     */
+    public void putSystemCodes(SystemCode[] systemCodes) {
+        if ( !this.bound ) return;
+        this.systemCodes = systemCodes.clone();
+    }
+    /**
+     * 現在のシステムの、保持しているサービスコードの一覧を取得します
+     * @return ServiceCode[] 一覧の複製が戻ります (保持していない場合は null)
+     */
+    public ServiceCode[] getServiceCodes() {
+        ServiceCode[] codes = this.serviceCodes[this.system];
+        return codes != null ? codes.clone() : null;
+    }
+    /**
+     * 現在のシステムのサービスコードの一覧を保持します
+     * @param serviceCodes 一覧をセット
+     */
+    public void putServiceCodes(ServiceCode[] serviceCodes) {
+        if ( !this.bound ) return;
+        this.serviceCodes[this.system] = serviceCodes.clone();
+    }
+    /**
+     * 保持しているブロックのデータを取得します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @return byte[] 16バイトのデータが戻ります (保持していない場合は null)
+     *                 戻り値はキャッシュ内部の配列なので変更しないでください
+     */
+    public byte[] getBlock(ServiceCode serviceCode, int blockNumber) {
+        if ( !this.bound ) return null;
+        return this.blocks.get(this.key(serviceCode, blockNumber));
+    }
+    /**
+     * 指定したブロックを全て保持しているか否かを検査します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers ブロック番号をセット
+     * @return boolean 全て保持している場合 trueが戻ります
+     */
+    public boolean containsBlocks(ServiceCode serviceCode, int... blockNumbers) {
+        if ( !this.bound ) return false;
+        for ( int blockNumber : blockNumbers ) {
+            if ( !this.blocks.containsKey(this.key(serviceCode, blockNumber)) ) return false;
+        }
+        return true;
+    }
+    /**
+     * 読み込んだブロックのデータを保持します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumbers ブロック番号をセット
+     * @param blockData 読み込んだデータ (16バイト x ブロック数) をセット
+     */
+    public void putBlocks(ServiceCode serviceCode, int[] blockNumbers, byte[] blockData) {
+        if ( !this.bound || blockData == null
+                || blockData.length < blockNumbers.length * BLOCK_SIZE ) return;
+        for ( int i = 0; i < blockNumbers.length; i++ ) {
+            byte[] block = new byte[BLOCK_SIZE];
+            System.arraycopy(blockData, i * BLOCK_SIZE, block, 0, BLOCK_SIZE);
+            this.blocks.put(this.key(serviceCode, blockNumbers[i]), block);
+        }
+    }
+    /**
+     * 現在のシステムの、指定したサービスのブロックを全て破棄します
+     * @param serviceCode サービスコードをセット
+     */
+    public void invalidate(ServiceCode serviceCode) {
+        if ( this.blocks.isEmpty() ) return;
+        long service = this.key(serviceCode, 0).longValue() >>> 16;
+        Iterator<Long> i = this.blocks.keySet().iterator();
+        while ( i.hasNext() ) {
+            if ( i.next().longValue() >>> 16 == service ) {
+                i.remove();
+            }
+        }
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TagSessionCache ");
+        if ( !this.bound ) return sb.append("(unbound)").toString();
+        ServiceCode[] codes = this.serviceCodes[this.system];
+        sb.append("IDm=").append(Long.toHexString(this.card | ((long) this.system << 60)))
+          .append(" system=").append(this.system)
+          .append(" systemCodes=").append(this.systemCodes != null ? this.systemCodes.length : -1)
+          .append(" serviceCodes=").append(codes != null ? codes.length : -1)
+          .append(" blocks=").append(this.blocks.size());
+        return sb.toString();
+    }
+    /**
+     * 現在のシステム番号、サービス番号とブロック番号からキーを生成します
+     */
+    private Long key(ServiceCode serviceCode, int blockNumber) {
+        return Long.valueOf(((long) this.system << 26)
+                | ((long) (serviceCode.getCode() >>> 6) << 16) | (blockNumber & 0xffff));
+    }
+    /**
+     * 8バイトのIDmを longに変換します
+     */
+    private static long toLong(byte[] bytes) {
+        long v = 0;
+        for ( int i = 0; i < 8; i++ ) {
+            v = (v << 8) | (bytes[i] & 0xff);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.CommandSpec;
+import net.kazzz.felica.lib.FeliCaLib.PMm;
+import android.os.SystemClock;
+
+/**
+ * 1回のカード取引(タッチ)の期限と通信回数の上限を保持するクラスを提供します
+ *
+ * <pre>
+ * FeliCaLib#execute(Tag, CommandPacket, TransactionContext)はコマンドを送信する前に
+ * beginCommand()で期限と通信回数を検査し、超過している場合は送信せずに
+ * TransactionExpiredExceptionをスローします。送信する場合は残り時間を
+ * 受信タイムアウトとして使用するため、応答の遅いカードでも期限を超えて待ちません。
+ *
+ * PMmをセットした場合は、最大応答時間パラメタから求めた応答時間の上限(最悪値)が
+ * 残り時間に収まらないコマンドも送信前に打ち切ります。上限で判定するため、
+ * 通常であれば期限内に応答するコマンドも打ち切ることがある保守的な検査です。
+ * 省略可能な読み込みは canAfford()で残りの予算を確認してから行います
+ * (setReserve()で必須の処理のための予算を残しておくことができます)
+ *
+ * このクラスはスレッドセーフではありません
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/22
+ * @since Android API Level 10
+ *
+ */
+
+public final class TransactionContext {
+    /** 通信回数を制限しない場合にセットする値 */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final long startTime;
+    private final long deadline;
+    private final int maxRoundTrips;
+    private PMm pmm;
+    private int roundTrips;
+    private int reservedRoundTrips;
+    private long reservedMillis;
+
+    /**
+     * コンストラクタ
+     *
+     * @param timeoutMillis 現在からの期限(ミリ秒)をセット
+     * @param maxRoundTrips 通信回数の上限をセット (制限しない場合は UNLIMITED)
+     */
+    public TransactionContext(long timeoutMillis, int maxRoundTrips) {
+        if ( timeoutMillis <= 0 || maxRoundTrips <= 0 ) {
+            throw new IllegalArgumentException("timeout : " + timeoutMillis + " maxRoundTrips : " + maxRoundTrips);
+        }
+        this.startTime = SystemClock.uptimeMillis();
+        this.deadline = this.startTime + timeoutMillis;
+        this.maxRoundTrips = maxRoundTrips;
+    }
+    /**
+     * 応答時間の見積りに使用する PMmをセットします
+     * @param pmm カードの PMmをセット (見積らない場合は null)
+     */
+    public void setPMm(PMm pmm) {
+        this.pmm = pmm;
+    }
+    /**
+     * 省略可能な処理に使用させない予算をセットします
+     *
+     * @param roundTrips 残しておく通信回数をセット
+     * @param millis 残しておく時間(ミリ秒)をセット
+     */
+    public void setReserve(int roundTrips, long millis) {
+        this.reservedRoundTrips = roundTrips;
+        this.reservedMillis = millis;
+    }
+    /**
+     * コマンドの送信前に期限と通信回数を検査し、通信回数を加算します
+     *
+     * @param commandCode 送信するコマンドコードをセット
+     * @return int 受信タイムアウトに使用する残り時間(ミリ秒)が戻ります
+     * @throws TransactionExpiredException 期限または通信回数を超過する場合にスローされます
+     */
+    public int beginCommand(byte commandCode) throws TransactionExpiredException {
+        long remaining = this.getRemainingMillis();
+        CommandSpec spec = FeliCaLib.getCommandSpec(commandCode);
+        String name = spec != null ? spec.getName() : Integer.toHexString(commandCode & 0xff);
+        if ( remaining <= 0 ) {
+            throw new TransactionExpiredException(name + " : deadline exceeded ("
+                    + this.getElapsedMillis() + "ms elapsed)");
+        }
+        if ( this.roundTrips >= this.maxRoundTrips ) {
+            throw new TransactionExpiredException(name + " : round-trip budget exhausted ("
+                    + this.maxRoundTrips + ")");
+        }
+        if ( this.estimateMillis(spec, 1) > remaining ) {
+            throw new TransactionExpiredException(name + " : not enough time for response ("
+                    + remaining + "ms remaining)");
+        }
+        this.roundTrips++;
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+    /**
+     * 予約分を残したまま、コマンドを実行する予算が残っているか否かを検査します
+     *
+     * @param commandCode 実行するコマンドコードをセット
+     * @param n ブロック数またはサービス数をセット (応答時間の見積りに使用します)
+     * @return boolean 予算が残っている場合 trueが戻ります
+     */
+    public boolean canAfford(byte commandCode, int n) {
+        if ( this.getRemainingRoundTrips() - this.reservedRoundTrips < 1 ) return false;
+        long available = this.getRemainingMillis() - this.reservedMillis;
+        return available > 0
+            && this.estimateMillis(FeliCaLib.getCommandSpec(commandCode), n) <= available;
+    }
+    /**
+     * 期限までの残り時間を取得します
+     * @return long 残り時間(ミリ秒)が戻ります (超過している場合は 0以下)
+     */
+    public long getRemainingMillis() {
+        return this.deadline - SystemClock.uptimeMillis();
+    }
+    /**
+     * 開始からの経過時間を取得します
+     * @return long 経過時間(ミリ秒)が戻ります
+     */
+    public long getElapsedMillis() {
+        return SystemClock.uptimeMillis() - this.startTime;
+    }
+    /**
+     * 実行した通信回数を取得します
+     * @return int 通信回数が戻ります
+     */
+    public int getRoundTrips() {
+        return this.roundTrips;
+    }
+    /**
+     * 残りの通信回数を取得します
+     * @return int 残りの通信回数が戻ります
+     */
+    public int getRemainingRoundTrips() {
+        return this.maxRoundTrips - this.roundTrips;
+    }
+    /**
+     * 期限または通信回数を超過しているか否かを検査します
+     * @return boolean 超過している場合 trueが戻ります
+     */
+    public boolean isExpired() {
+        return this.getRemainingMillis() <= 0 || this.roundTrips >= this.maxRoundTrips;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TransactionContext ");
+        sb.append("elapsed=").append(this.getElapsedMillis()).append("ms")
+          .append(" remaining=").append(this.getRemainingMillis()).append("ms")
+          .append(" roundTrips=").append(this.roundTrips);
+        if ( this.maxRoundTrips != UNLIMITED ) {
+            sb.append('/').append(this.maxRoundTrips);
+        }
+        return sb.toString();
+    }
+    /**
+     * PMmの最大応答時間パラメタからコマンドの応答時間の上限(最悪値)を見積ります
+     */
+    private long estimateMillis(CommandSpec spec, int n) {
+        if ( this.pmm == null || spec == null || spec.getTimeoutIndex() < 0 ) return 0;
+        return this.pmm.getMaximumResponseTime(spec.getTimeoutIndex(), n) / 1000;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica;
+
+/**
+ * カード取引の期限または通信回数を超過したためにコマンドを送信しなかった場合の例外クラスを提供します
+ *
+ * @author Kazzz
+ * @date 2011/03/22
+ * @since Android API Level 10
+ *
+ */
+
+public class TransactionExpiredException extends FeliCaException {
+    private static final long serialVersionUID = 1L;
+    /**
+     * コンストラクタ
+     * @param message メッセージをセット
+     */
+    public TransactionExpiredException(String message) {
+        super(message);
+    }
+}
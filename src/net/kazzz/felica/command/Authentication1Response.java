@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.command;
+
+import java.util.Arrays;
+
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
+import net.kazzz.felica.lib.Util;
+
+/**
+ * Authentication1 コマンドのレスポンスを抽象化したクラスを提供します
+ *
+ * @author Kazzz
+ * @date 2011/03/12
+ * @since Android API Level 9
+ *
+ */
+
+public class Authentication1Response extends CommandResponse {
+    final byte[] challengeResponse; // M2c
+    final byte[] challenge;         // M3c
+    /**
+     * コンストラクタ
+     *
+     * @param response コマンド実行結果のレスポンスをセット
+     */
+    public Authentication1Response(CommandResponse response) {
+        super(response);
+        if ( this.data != null && this.data.length >= 16 ) {
+            this.challengeResponse = Arrays.copyOfRange(this.data, 0, 8);
+            this.challenge = Arrays.copyOfRange(this.data, 8, 16);
+        } else {
+            this.challengeResponse = null;
+            this.challenge = null;
+        }
+    }
+    /**
+     * カードが返したチャレンジ応答(M2c)を取得します
+     * @return byte[] M2cが戻ります (不正な応答の場合はnull)
+     */
+    public byte[] getChallengeResponse() {
+        return this.challengeResponse;
+    }
+    /**
+     * カードが発行したチャレンジ(M3c)を取得します
+     * @return byte[] M3cが戻ります (不正な応答の場合はnull)
+     */
+    public byte[] getChallenge() {
+        return this.challenge;
+    }
+    /* (non-Javadoc)
+     * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+     */
+    @Override
+    public StringBuilder render(StringBuilder sb) {
+        if ( this.rawData == null ) return super.render(sb);
+        sb.append("FeliCa Authentication1 Response \n");
+        sb.append(" コマンド名 : ").append(FeliCaLib.getCommandName(this.responseCode)).append("\n");
+        sb.append(" データ長 : ").append(this.length).append("\n");
+        Util.appendHex(sb.append(" コマンドコード : "), this.responseCode).append("\n");
+        if ( this.idm != null )
+            this.idm.render(sb.append(" ")).append("\n");
+        if ( this.challengeResponse != null )
+            Util.appendHex(sb.append(" M2c : "), this.challengeResponse, 0, this.challengeResponse.length).append("\n");
+        if ( this.challenge != null )
+            Util.appendHex(sb.append(" M3c : "), this.challenge, 0, this.challenge.length).append("\n");
+        return sb;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.command;
+
+import java.util.Arrays;
+
+import net.kazzz.felica.lib.FeliCaLib;
+import net.kazzz.felica.lib.FeliCaLib.CommandResponse;
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.Util;
+
+/**
+ * Authentication2 コマンドのレスポンスを抽象化したクラスを提供します
+ *
+ * <pre>
+ * レスポンスのIDm部にはトランザクションID(IDt)が格納されます。
+ * 以降のRead/Writeコマンドはこの IDtを使って発行します
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/12
+ * @since Android API Level 9
+ *
+ */
+
+public class Authentication2Response extends CommandResponse {
+    final byte[] pmi; // 発行ID(PMi)
+    /**
+     * コンストラクタ
+     *
+     * @param response コマンド実行結果のレスポンスをセット
+     */
+    public Authentication2Response(CommandResponse response) {
+        super(response);
+        if ( this.data != null && this.data.length >= 8 ) {
+            this.pmi = Arrays.copyOfRange(this.data, 0, 8);
+        } else {
+            this.pmi = null;
+        }
+    }
+    /**
+     * トランザクションID(IDt)を取得します
+     * @return IDm IDtが戻ります
+     */
+    public IDm getIDt() {
+        return this.idm;
+    }
+    /**
+     * PMiを取得します
+     * @return byte[] PMiが戻ります (不正な応答の場合はnull)
+     */
+    public byte[] getPMi() {
+        return this.pmi;
+    }
+    /* (non-Javadoc)
+     * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+     */
+    @Override
+    public StringBuilder render(StringBuilder sb) {
+        if ( this.rawData == null ) return super.render(sb);
+        sb.append("FeliCa Authentication2 Response \n");
+        sb.append(" コマンド名 : ").append(FeliCaLib.getCommandName(this.responseCode)).append("\n");
+        sb.append(" データ長 : ").append(this.length).append("\n");
+        Util.appendHex(sb.append(" コマンドコード : "), this.responseCode).append("\n");
+        if ( this.idm != null )
+            Util.appendHex(sb.append(" IDt : "), this.idm.getBytes(), 0, 8).append("\n");
+        if ( this.pmi != null )
+            Util.appendHex(sb.append(" PMi : "), this.pmi, 0, this.pmi.length).append("\n");
+        return sb;
+    }
+}
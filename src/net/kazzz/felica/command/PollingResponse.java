@@ -53,21 +53,48 @@ public class PollingResponse extends CommandResponse {
     public PMm getPMm() {
         return this.pmm;
     }
+    /**
+     * 応答したシステムのシステムコードを取得します
+     * 
+     * <pre>
+     * ポーリングのリクエストコードに 0x01(システムコードリクエスト)を指定した場合のみ有効です
+     * </pre>
+     * 
+     * @return int システムコードが戻ります (リクエストデータが無い場合は -1)
+     */
+    public int getSystemCode() {
+        if ( this.requestData == null || this.requestData.length < 2 ) return -1;
+        return Util.getU16BE(this.requestData, 0);
+    }
     /* (non-Javadoc)
-     * @see java.lang.Object#toString()
+     * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
      */
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
+    public StringBuilder render(StringBuilder sb) {
+        if ( this.rawData == null ) return super.render(sb);
         sb.append("FeliCa レスポンス　パケット \n");
-        sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
-        sb.append(" データ長 : " + this.length + "\n");
-        sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
+        sb.append(" コマンド名 : ").append(FeliCaLib.getCommandName(this.responseCode)).append("\n");
+        sb.append(" データ長 : ").append(this.length).append("\n");
+        Util.appendHex(sb.append(" コマンドコード : "), this.responseCode).append("\n");
         if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
+            this.idm.render(sb.append(" ")).append("\n");
+        if ( this.pmm != null )
+            this.pmm.render(sb.append(" ")).append("\n");
+        if ( this.data != null )
+            Util.appendHex(sb.append(" データ: "), this.data, 0, this.data.length).append("\n");
+        return sb;
+    }
+    /* (non-Javadoc)
+     * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+     */
+    @Override
+    public StringBuilder renderCompact(StringBuilder sb) {
+        if ( this.rawData == null ) return super.renderCompact(sb);
+        this.renderCompactHeader(sb);
         if ( this.pmm != null )
-            sb.append(" " + this.pmm.toString() + "\n");
-        sb.append(" データ: " + Util.getHexString(this.data) + "\n");
-        return sb.toString();
+            this.pmm.renderCompact(sb.append(' '));
+        if ( this.requestData != null && this.requestData.length > 0 )
+            Util.appendHex(sb.append(" req="), this.requestData, 0, this.requestData.length);
+        return sb;
     }
 }
@@ -38,10 +38,17 @@ public class ReadResponse extends CommandResponse {
      */
     public ReadResponse(CommandResponse response) {
         super(response);
-        this.statusFlag1 = this.data[0];
-        this.statusFlag2 = this.data[1];
-        if ( this.getStatusFlag1() == 0 ) {
-            this.blockCount  = this.data[2];
+        if ( this.data == null || this.data.length < 2 ) {
+            this.statusFlag1 = -1; // レスポンス無し (Tag Lost)
+            this.statusFlag2 = -1;
+            this.blockCount = 0;
+            this.blockData = null;
+            return;
+        }
+        this.statusFlag1 = Util.getU8(this.data, 0);
+        this.statusFlag2 = Util.getU8(this.data, 1);
+        if ( this.getStatusFlag1() == 0 && this.data.length >= 3 ) {
+            this.blockCount  = Util.getU8(this.data, 2);
             this.blockData = Arrays.copyOfRange(this.data, 3, data.length);
         } else {
             this.blockCount  = 0;
@@ -51,7 +58,7 @@ public class ReadResponse extends CommandResponse {
     
     /**
      * statusFlag1を取得します
-     * @return int statusFlag1が戻ります
+     * @return int statusFlag1が戻ります (レスポンスが無い場合は -1)
      */
     public int getStatusFlag1() {
         return this.statusFlag1;
@@ -59,7 +66,7 @@ public class ReadResponse extends CommandResponse {
 
     /**
      * statusFlag2を取得します
-     * @return int statusFlag2が戻ります
+     * @return int statusFlag2が戻ります (レスポンスが無い場合は -1)
      */
     public int getStatusFlag2() {
         return this.statusFlag2;
@@ -82,22 +89,35 @@ public class ReadResponse extends CommandResponse {
     }
 
     /* (non-Javadoc)
-     * @see java.lang.Object#toString()
+     * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
      */
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
+    public StringBuilder render(StringBuilder sb) {
+        if ( this.rawData == null ) return super.render(sb);
         sb.append("FeliCa Read Response \n");
-        sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
-        sb.append(" データ長 : " + this.length + "\n");
-        sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
+        sb.append(" コマンド名 : ").append(FeliCaLib.getCommandName(this.responseCode)).append("\n");
+        sb.append(" データ長 : ").append(this.length).append("\n");
+        Util.appendHex(sb.append(" コマンドコード : "), this.responseCode).append("\n");
         if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
-        sb.append(" ステータスフラグ1 : " + Util.getHexString((byte)(this.statusFlag1 & 0xff)) +  "\n");
-        sb.append(" ステータスフラグ2 : " + Util.getHexString((byte)(this.statusFlag2 & 0xff)) +  "\n");
+            this.idm.render(sb.append(" ")).append("\n");
+        Util.appendHex(sb.append(" ステータスフラグ1 : "), (byte)this.statusFlag1).append("\n");
+        Util.appendHex(sb.append(" ステータスフラグ2 : "), (byte)this.statusFlag2).append("\n");
+        if ( this.blockData != null )
+            Util.appendHex(sb.append(" ブロックデータ:  "), this.blockData, 0, this.blockData.length).append("\n");
+        return sb;
+    }
+    /* (non-Javadoc)
+     * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+     */
+    @Override
+    public StringBuilder renderCompact(StringBuilder sb) {
+        if ( this.rawData == null ) return super.renderCompact(sb);
+        this.renderCompactHeader(sb).append(" sf=");
+        Util.appendHex(sb, (byte)this.statusFlag1).append('/');
+        Util.appendHex(sb, (byte)this.statusFlag2).append(" blocks=").append(this.blockCount);
         if ( this.blockData != null )
-            sb.append(" ブロックデータ:  " + Util.getHexString(this.blockData) + "\n");
-        return sb.toString();
+            Util.appendHex(sb.append(" data="), this.blockData, 0, this.blockData.length);
+        return sb;
     }
 }
 
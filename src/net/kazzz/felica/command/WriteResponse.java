@@ -34,13 +34,18 @@ public class WriteResponse extends CommandResponse {
      */
     public WriteResponse(CommandResponse response) {
         super(response);
-        this.statusFlag1 = this.data[0];
-        this.statusFlag2 = this.data[1];
+        if ( this.data != null && this.data.length >= 2 ) {
+            this.statusFlag1 = Util.getU8(this.data, 0);
+            this.statusFlag2 = Util.getU8(this.data, 1);
+        } else {
+            this.statusFlag1 = -1; // レスポンス無し (Tag Lost)
+            this.statusFlag2 = -1;
+        }
     }
     
     /**
      * statusFlag1を取得します
-     * @return int statusFlag1が戻ります
+     * @return int statusFlag1が戻ります (レスポンスが無い場合は -1)
      */
     public int getStatusFlag1() {
         return this.statusFlag1;
@@ -48,26 +53,36 @@ public class WriteResponse extends CommandResponse {
 
     /**
      * statusFlag2を取得します
-     * @return int statusFlag2が戻ります
+     * @return int statusFlag2が戻ります (レスポンスが無い場合は -1)
      */
     public int getStatusFlag2() {
         return this.statusFlag2;
     }
     /* (non-Javadoc)
-     * @see java.lang.Object#toString()
+     * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
      */
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
+    public StringBuilder render(StringBuilder sb) {
+        if ( this.rawData == null ) return super.render(sb);
         sb.append("FeliCa Write Response \n");
-        sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
-        sb.append(" データ長 : " + this.length + "\n");
-        sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
+        sb.append(" コマンド名 : ").append(FeliCaLib.getCommandName(this.responseCode)).append("\n");
+        sb.append(" データ長 : ").append(this.length).append("\n");
+        Util.appendHex(sb.append(" コマンドコード : "), this.responseCode).append("\n");
         if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
-        sb.append(" ステータスフラグ1 : " + Util.getHexString((byte)(this.statusFlag1 & 0xff)) +  "\n");
-        sb.append(" ステータスフラグ2 : " + Util.getHexString((byte)(this.statusFlag2 & 0xff)) +  "\n");
-        return sb.toString();
+            this.idm.render(sb.append(" ")).append("\n");
+        Util.appendHex(sb.append(" ステータスフラグ1 : "), (byte)this.statusFlag1).append("\n");
+        Util.appendHex(sb.append(" ステータスフラグ2 : "), (byte)this.statusFlag2).append("\n");
+        return sb;
+    }
+    /* (non-Javadoc)
+     * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+     */
+    @Override
+    public StringBuilder renderCompact(StringBuilder sb) {
+        if ( this.rawData == null ) return super.renderCompact(sb);
+        this.renderCompactHeader(sb).append(" sf=");
+        Util.appendHex(sb, (byte)this.statusFlag1).append('/');
+        return Util.appendHex(sb, (byte)this.statusFlag2);
     }
 }
 
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.edy;
+
+import static net.kazzz.felica.lib.Util.getU24;
+import static net.kazzz.felica.lib.Util.getU32;
+import static net.kazzz.felica.lib.Util.getU32LE;
+import static net.kazzz.felica.lib.Util.getU8;
+import net.kazzz.felica.command.ReadResponse;
+
+/**
+ * Edyの残高ブロック(SERVICE_EDY_BALANCE)と履歴ブロック(SERVICE_EDY_HISTORY)を
+ * デコードするクラスを提供します
+ *
+ * <pre>
+ * 残高ブロック(16バイト)
+ *  0-3   : 残高 (little endian)
+ *
+ * 履歴ブロック(16バイト)
+ *  0     : 取引種別
+ *  1-3   : 取引連番 (big endian)
+ *  4-7   : 日時 (上位15bit 2000/01/01からの日数, 下位17bit 0時からの秒数, big endian)
+ *  8-11  : 取引金額 (big endian)
+ *  12-15 : 取引後の残高 (big endian)
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/17
+ * @since Android API Level 9
+ *
+ */
+
+public final class EdyDecoder {
+    /** ブロックのサイズ */
+    public static final int BLOCK_SIZE = 16;
+    /** 履歴サービスに格納されるレコード数 */
+    public static final int MAX_HISTORY = 6;
+
+    /** 取引種別 : チャージ */
+    public static final int TYPE_CHARGE = 0x02;
+    /** 取引種別 : ギフト */
+    public static final int TYPE_GIFT = 0x04;
+    /** 取引種別 : 支払 */
+    public static final int TYPE_PAYMENT = 0x20;
+
+    private static final int DAYS_1970_TO_2000 = 10957;
+
+    private EdyDecoder() {}
+    /**
+     * 残高を取得します
+     *
+     * @param response 残高サービスの読み込み結果をセット
+     * @return int 残高が戻ります (読み込めていない場合は -1)
+     */
+    public static int decodeBalance(ReadResponse response) {
+        byte[] b = response.getBlockData();
+        if ( b == null || b.length < 4 ) return -1;
+        return decodeBalance(b, 0);
+    }
+    /**
+     * 残高ブロックから残高を取得します
+     *
+     * @param b 残高ブロックが格納されたバイト列をセット
+     * @param p ブロックのオフセットをセット
+     * @return int 残高が戻ります
+     */
+    public static int decodeBalance(byte[] b, int p) {
+        return getU32LE(b, p);
+    }
+    /**
+     * 読み込んだ履歴ブロックをデコードしてバッチに追加します
+     *
+     * @param response 履歴サービスの読み込み結果をセット
+     * @param out 出力先のバッチをセット
+     * @return int 追加したレコード数が戻ります
+     */
+    public static int decodeHistory(ReadResponse response, EdyHistoryBatch out) {
+        byte[] blockData = response.getBlockData();
+        if ( blockData == null ) return 0;
+        return decodeHistory(blockData, 0, blockData.length / BLOCK_SIZE, out);
+    }
+    /**
+     * 履歴ブロックの並びをデコードしてバッチに追加します (未使用のブロックは読み飛ばします)
+     *
+     * @param blockData 履歴ブロックが連続して格納されたバイト列をセット
+     * @param offset 先頭ブロックのオフセットをセット
+     * @param blockCount デコードするブロック数をセット
+     * @param out 出力先のバッチをセット
+     * @return int 追加したレコード数が戻ります
+     */
+    public static int decodeHistory(byte[] blockData, int offset, int blockCount, EdyHistoryBatch out) {
+        out.ensureCapacity(out.size() + blockCount);
+        int added = 0;
+        for ( int n = 0; n < blockCount; n++ ) {
+            if ( decodeHistoryBlock(blockData, offset + n * BLOCK_SIZE, out) ) added++;
+        }
+        return added;
+    }
+    /**
+     * 履歴ブロックを1件デコードしてバッチに追加します
+     *
+     * @param b 履歴ブロックが格納されたバイト列をセット
+     * @param p ブロックのオフセットをセット
+     * @param out 出力先のバッチをセット
+     * @return boolean 追加した場合 trueが戻ります (未使用ブロックの場合 false)
+     */
+    public static boolean decodeHistoryBlock(byte[] b, int p, EdyHistoryBatch out) {
+        int dateTime = getU32(b, p + 4);
+        if ( b[p] == 0 && dateTime == 0 ) {
+            return false; // 未使用ブロック
+        }
+        int i = out.next();
+        out.type[i] = (short) getU8(b, p);
+        out.sequence[i] = getU24(b, p + 1);
+        out.date[i] = toDate(dateTime >>> 17);
+        out.time[i] = dateTime & 0x1ffff;
+        out.amount[i] = getU32(b, p + 8);
+        out.balance[i] = getU32(b, p + 12);
+        return true;
+    }
+    /**
+     * 2000/01/01からの日数を yyyyMMdd形式の整数に変換します
+     *
+     * @param days 2000/01/01からの日数をセット
+     * @return int yyyyMMdd形式の日付が戻ります
+     */
+    public static int toDate(int days) {
+        // グレゴリオ暦への変換 (Calendarを使わずに計算します)
+        int z = days + DAYS_1970_TO_2000 + 719468;
+        int era = z / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.edy;
+
+import java.util.Arrays;
+
+/**
+ * Edyの利用履歴を列指向(プリミティブ配列)で保持するバッチクラスを提供します
+ *
+ * <pre>
+ * i番目のレコードは各配列の i番目の要素で表現されます。
+ * バッチは clear()して再利用することを想定しています
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/17
+ * @since Android API Level 9
+ *
+ */
+
+public final class EdyHistoryBatch {
+    /** 取引種別 (0x02:チャージ, 0x04:ギフト, 0x20:支払) */
+    public short[] type;
+    /** 取引連番 */
+    public int[] sequence;
+    /** 日付 (yyyyMMdd形式の整数) */
+    public int[] date;
+    /** 時刻 (0時からの秒数) */
+    public int[] time;
+    /** 取引金額 */
+    public int[] amount;
+    /** 取引後の残高 */
+    public int[] balance;
+
+    private int size;
+
+    /**
+     * コンストラクタ
+     * @param capacity 初期容量(レコード数)をセット
+     */
+    public EdyHistoryBatch(int capacity) {
+        this.type = new short[capacity];
+        this.sequence = new int[capacity];
+        this.date = new int[capacity];
+        this.time = new int[capacity];
+        this.amount = new int[capacity];
+        this.balance = new int[capacity];
+    }
+    /**
+     * 格納されているレコード数を取得します
+     * @return int レコード数が戻ります
+     */
+    public int size() {
+        return this.size;
+    }
+    /**
+     * 容量(レコード数)を取得します
+     * @return int 容量が戻ります
+     */
+    public int capacity() {
+        return this.date.length;
+    }
+    /**
+     * 格納されたレコードを破棄します (配列は再利用されます)
+     */
+    public void clear() {
+        this.size = 0;
+    }
+    /**
+     * 指定したレコード数を格納できるように容量を拡張します
+     * @param minCapacity 必要なレコード数をセット
+     */
+    public void ensureCapacity(int minCapacity) {
+        if ( minCapacity <= this.capacity() ) return;
+        int newCapacity = Math.max(minCapacity, this.capacity() * 2);
+        this.type = Arrays.copyOf(this.type, newCapacity);
+        this.sequence = Arrays.copyOf(this.sequence, newCapacity);
+        this.date = Arrays.copyOf(this.date, newCapacity);
+        this.time = Arrays.copyOf(this.time, newCapacity);
+        this.amount = Arrays.copyOf(this.amount, newCapacity);
+        this.balance = Arrays.copyOf(this.balance, newCapacity);
+    }
+    /**
+     * 次に書きこむレコードの位置を確保します
+     * @return int 確保したレコードのインデックスが戻ります
+     */
+    int next() {
+        this.ensureCapacity(this.size + 1);
+        return this.size++;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("EdyHistoryBatch (" + this.size + " records)\n");
+        for ( int i = 0; i < this.size; i++ ) {
+            sb.append("  [").append(i).append("]")
+              .append(" 種別:").append(this.type[i])
+              .append(" 連番:").append(this.sequence[i])
+              .append(" 日付:").append(this.date[i])
+              .append(" 時刻:").append(this.time[i])
+              .append(" 金額:").append(this.amount[i])
+              .append(" 残高:").append(this.balance[i]).append("\n");
+        }
+        return sb.toString();
+    }
+}
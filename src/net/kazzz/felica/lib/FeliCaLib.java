@@ -12,13 +12,21 @@
 package net.kazzz.felica.lib;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.kazzz.felica.FeliCaException;
+import net.kazzz.felica.FeliCaStatus;
 import net.kazzz.felica.IFeliCaByteData;
+import net.kazzz.felica.IFeliCaRenderable;
+import net.kazzz.felica.TransactionContext;
+import net.kazzz.felica.TransactionExpiredException;
 import net.kazzz.felica.command.IFeliCaCommand;
 import net.kazzz.nfc.NfcException;
 import android.nfc.Tag;
@@ -107,6 +115,11 @@ public final class FeliCaLib {
     public static final int SERVICE_FELICA_LITE_READONLY = 0x0b00;  // FeliCa Lite RO権限 
     public static final int SERVICE_FELICA_LITE_READWRITE = 0x0900; // FeliCa Lite RW権限
 
+    // サービスコード Edy
+    public static final int SERVICE_EDY_NUMBER = 0x110b;            // Edy 番号
+    public static final int SERVICE_EDY_BALANCE = 0x1317;           // Edy 残高
+    public static final int SERVICE_EDY_HISTORY = 0x170f;           // Edy 利用履歴
+
     
     //アクセス属性 (サービスコードの下6ビット
     public static final int RANDOM_RW_AUTH = 0x08;   // ランダムサービス(リード/ライト:認証必要) 001000b
@@ -138,32 +151,243 @@ public final class FeliCaLib {
     public static final int STATUSFLAG2_ERROR_MEMORY    = 0x70; 
     public static final int STATUSFLAG2_ERROR_WRITELIMIT= 0x71; 
    
-    public static final Map<Byte, String> commandMap = new HashMap<Byte, String>();
+    // 最大応答時間パラメタ(PMm)のインデックス
+    public static final int TIMEOUT_NONE = -1;              // 固定 (Polling)
+    public static final int TIMEOUT_REQUEST_SERVICE = 0;    // B3 request service
+    public static final int TIMEOUT_REQUEST_RESPONSE = 1;   // B4 request response
+    public static final int TIMEOUT_AUTHENTICATE = 2;       // B5 authenticate
+    public static final int TIMEOUT_READ = 3;               // B6 read
+    public static final int TIMEOUT_WRITE = 4;              // B7 write
+    public static final int TIMEOUT_OTHER = 5;              // B8 その他
+
+    // コマンドデータ(IDmを除く)の最大長 (データ長 1byte + コマンドコード 1byte + IDm 8byteを除いたフレームの上限)
+    public static final int MAX_COMMAND_DATA_LENGTH = 255 - 2 - 8;
+
+    //command code and metadata table (コマンドコード/レスポンスコードでインデックスします)
+    private static final CommandSpec[] COMMAND_SPECS = new CommandSpec[256];
+
+    private static final ICommandInterceptor[] NO_INTERCEPTORS = new ICommandInterceptor[0];
+    private static final Object INTERCEPTOR_LOCK = new Object();
+    private static volatile ICommandInterceptor[] interceptors = NO_INTERCEPTORS;
+
+    // 接続を保持したまま共有している NfcF (FeliCaPoller)
+    private static final AtomicReference<NfcF> SHARED_CONNECTION = new AtomicReference<NfcF>();
+
+    // NfcF#getTimeout/setTimeout (API Level 14以降、無い場合は null)
+    private static final Method NFCF_GET_TIMEOUT = findMethod(NfcF.class, "getTimeout");
+    private static final Method NFCF_SET_TIMEOUT = findMethod(NfcF.class, "setTimeout", int.class);
+
+    static {
+        defineCommand(COMMAND_POLLING, "Polling", RESPONSE_POLLING, "Polling(responce)"
+                , 4, TIMEOUT_NONE, false);
+        defineCommand(COMMAND_REQUEST_SERVICE, "Request Service", RESPONSE_REQUEST_SERVICE, "Request Service(response)"
+                , 1 + 2 * 32, TIMEOUT_REQUEST_SERVICE, true);
+        defineCommand(COMMAND_REQUEST_RESPONSE, "Request Response", RESPONSE_REQUEST_RESPONSE, "Request Response(response)"
+                , 0, TIMEOUT_REQUEST_RESPONSE, true);
+        defineCommand(COMMAND_READ_WO_ENCRYPTION, "Read Without Encryption", RESPONSE_READ_WO_ENCRYPTION, "Read Without Encryption(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_READ, true);
+        defineCommand(COMMAND_WRITE_WO_ENCRYPTION, "Write Without Encryption", RESPONSE_WRITE_WO_ENCRYPTION, "Write Without Encryption(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_WRITE, true);
+        defineCommand(COMMAND_SEARCH_SERVICECODE, "Search Service", RESPONSE_SEARCH_SERVICECODE, "Search Service(response)"
+                , 2, TIMEOUT_OTHER, true);
+        defineCommand(COMMAND_REQUEST_SYSTEMCODE, "Request System Code", RESPONSE_REQUEST_SYSTEMCODE, "Request System Code(response)"
+                , 0, TIMEOUT_OTHER, true);
+        defineCommand(COMMAND_AUTHENTICATION1, "Authentication1", RESPONSE_AUTHENTICATION1, "Authentication1(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_AUTHENTICATE, true);
+        defineCommand(COMMAND_AUTHENTICATION2, "Authentication2", RESPONSE_AUTHENTICATION2, "Authentication2(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_AUTHENTICATE, true);
+        defineCommand(COMMAND_READ, "Read", RESPONSE_READ, "Read(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_READ, true);
+        defineCommand(COMMAND_WRITE, "Write", RESPONSE_WRITE, "Write(response)"
+                , MAX_COMMAND_DATA_LENGTH, TIMEOUT_WRITE, true);
+    }
     
-    //command code and name dictionary
+    /**
+     * コマンドコードとコマンド名の辞書
+     * @deprecated 変更できません。{@link #getCommandSpec(byte)}または{@link #getCommandName(byte)}を使用してください
+     */
+    @Deprecated
+    public static final Map<Byte, String> commandMap;
     static {
-        commandMap.put(COMMAND_POLLING, "Polling");
-        commandMap.put(RESPONSE_POLLING, "Polling(responce)");
-        commandMap.put(COMMAND_REQUEST_SERVICE, "Request Service");
-        commandMap.put(RESPONSE_REQUEST_SERVICE, "Request Service(response)");
-        commandMap.put(COMMAND_REQUEST_RESPONSE, "Request Response");
-        commandMap.put(RESPONSE_REQUEST_RESPONSE, "Request Response(response)");
-        commandMap.put(COMMAND_READ_WO_ENCRYPTION, "Read Without Encryption");
-        commandMap.put(RESPONSE_READ_WO_ENCRYPTION, "Read Without Encryption(response)");
-        commandMap.put(COMMAND_WRITE_WO_ENCRYPTION, "Write Without Encryption");
-        commandMap.put(RESPONSE_WRITE_WO_ENCRYPTION, "Write Without Encryption(response)");
-        commandMap.put(COMMAND_SEARCH_SERVICECODE, "Search Service");
-        commandMap.put(RESPONSE_SEARCH_SERVICECODE, "Search Service(response)");
-        commandMap.put(COMMAND_REQUEST_SYSTEMCODE, "Request System Code");
-        commandMap.put(RESPONSE_REQUEST_SYSTEMCODE, "Request System Code(response)");
-        commandMap.put(COMMAND_AUTHENTICATION1, "Authentication1");
-        commandMap.put(RESPONSE_AUTHENTICATION1, "Authentication1(response)");
-        commandMap.put(COMMAND_AUTHENTICATION2, "Authentication2");
-        commandMap.put(RESPONSE_AUTHENTICATION2, "Authentication2(response)");
-        commandMap.put(COMMAND_READ, "Read");
-        commandMap.put(RESPONSE_READ, "Read(response)");
-        commandMap.put(COMMAND_WRITE, "Write");
-        commandMap.put(RESPONSE_WRITE, "Write(response)");
+        Map<Byte, String> map = new HashMap<Byte, String>();
+        for ( CommandSpec spec : COMMAND_SPECS ) {
+            if ( spec != null ) map.put(spec.getCode(), spec.getName());
+        }
+        commandMap = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * コマンドとそのレスポンスをメタデータテーブルに登録します
+     */
+    private static void defineCommand(byte commandCode, String commandName
+            , byte responseCode, String responseName
+            , int maxDataLength, int timeoutIndex, boolean idmRequired) {
+        COMMAND_SPECS[commandCode & 0xff] = new CommandSpec(commandCode, commandName, false
+                , responseCode & 0xff, maxDataLength, timeoutIndex, idmRequired);
+        COMMAND_SPECS[responseCode & 0xff] = new CommandSpec(responseCode, responseName, true
+                , commandCode & 0xff, MAX_COMMAND_DATA_LENGTH, timeoutIndex, true);
+    }
+    /**
+     * コマンドコード(またはレスポンスコード)のメタデータを取得します
+     * 
+     * @param code コマンドコードまたはレスポンスコードをセット
+     * @return CommandSpec メタデータが戻ります (未サポートの場合は null)
+     */
+    public static CommandSpec getCommandSpec(byte code) {
+        return COMMAND_SPECS[code & 0xff];
+    }
+    /**
+     * コマンドコード(またはレスポンスコード)の名前を取得します
+     * 
+     * @param code コマンドコードまたはレスポンスコードをセット
+     * @return String コマンド名が戻ります (未サポートの場合は null)
+     */
+    public static String getCommandName(byte code) {
+        CommandSpec spec = COMMAND_SPECS[code & 0xff];
+        return spec != null ? spec.getName() : null;
+    }
+    /**
+     * 
+     * FeliCa コマンドのメタデータ(コマンド名、対応するレスポンスコード、データ長の上限、
+     * PMmの最大応答時間パラメタのインデックス、IDmの要否)を保持するクラスを提供します
+     * 
+     * <pre>
+     * インスタンスはコマンドコードでインデックスされる不変のテーブルに保持されます。
+     * {@link FeliCaLib#getCommandSpec(byte)}で取得してください
+     * </pre>
+     * 
+     * @author Kazzz
+     * @date 2011/03/19
+     * @since Android API Level 9
+     */
+    public static final class CommandSpec {
+        private final byte code;
+        private final String name;
+        private final boolean response;
+        private final int pairCode;
+        private final int maxDataLength;
+        private final int timeoutIndex;
+        private final boolean idmRequired;
+        
+        CommandSpec(byte code, String name, boolean response, int pairCode
+                , int maxDataLength, int timeoutIndex, boolean idmRequired) {
+            this.code = code;
+            this.name = name;
+            this.response = response;
+            this.pairCode = pairCode;
+            this.maxDataLength = maxDataLength;
+            this.timeoutIndex = timeoutIndex;
+            this.idmRequired = idmRequired;
+        }
+        /**
+         * コマンドコード(レスポンスの場合はレスポンスコード)を取得します
+         * @return byte コードが戻ります
+         */
+        public byte getCode() {
+            return this.code;
+        }
+        /**
+         * コマンド名を取得します
+         * @return String コマンド名が戻ります
+         */
+        public String getName() {
+            return this.name;
+        }
+        /**
+         * レスポンスのメタデータか否かを検査します
+         * @return boolean レスポンスの場合 trueが戻ります
+         */
+        public boolean isResponse() {
+            return this.response;
+        }
+        /**
+         * コマンドに対して期待されるレスポンスコードを取得します
+         * @return int レスポンスコードが戻ります (レスポンスのメタデータの場合は -1)
+         */
+        public int getResponseCode() {
+            return this.response ? -1 : this.pairCode;
+        }
+        /**
+         * レスポンスに対応するコマンドコードを取得します
+         * @return int コマンドコードが戻ります (コマンドのメタデータの場合は -1)
+         */
+        public int getCommandCode() {
+            return this.response ? this.pairCode : -1;
+        }
+        /**
+         * コマンドデータ(IDmを除く)の最大長を取得します
+         * @return int 最大長(バイト)が戻ります
+         */
+        public int getMaxDataLength() {
+            return this.maxDataLength;
+        }
+        /**
+         * PMmの最大応答時間パラメタのインデックスを取得します
+         * @return int インデックス(TIMEOUT_*)が戻ります (固定の場合は TIMEOUT_NONE)
+         */
+        public int getTimeoutIndex() {
+            return this.timeoutIndex;
+        }
+        /**
+         * コマンドにIDmが必要か否かを検査します
+         * @return boolean IDmが必要な場合 trueが戻ります
+         */
+        public boolean isIDmRequired() {
+            return this.idmRequired;
+        }
+        /**
+         * レスポンスコードがこのコマンドに対して期待されるものか検査します
+         * @param responseCode 検査するレスポンスコードをセット
+         * @return boolean 期待されるレスポンスコードの場合 trueが戻ります
+         */
+        public boolean accepts(byte responseCode) {
+            return !this.response && (responseCode & 0xff) == this.pairCode;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(this.name).append(" [");
+            Util.appendHex(sb, this.code).append("]");
+            if ( !this.response ) {
+                sb.append(" response=");
+                Util.appendHex(sb, (byte)this.pairCode);
+                sb.append(" maxData=").append(this.maxDataLength)
+                  .append(" timeout=").append(this.timeoutIndex)
+                  .append(" idm=").append(this.idmRequired);
+            }
+            return sb.toString();
+        }
+    }
+    /**
+     * コマンドコードを検査してメタデータを取得します
+     * 
+     * @param commandCode コマンドコードをセット
+     * @return CommandSpec コマンドのメタデータが戻ります
+     * @throws FeliCaException サポートされていないコマンドコードの場合にスローされます
+     */
+    static CommandSpec checkCommand(byte commandCode) throws FeliCaException {
+        CommandSpec spec = COMMAND_SPECS[commandCode & 0xff];
+        if ( spec == null || spec.isResponse() )
+            throw new FeliCaException("commandCode : " + commandCode + " not supported.");
+        return spec;
+    }
+    /**
+     * コマンドデータを検査します
+     * 
+     * @param spec コマンドのメタデータをセット
+     * @param hasIDm IDmがセットされているか否かをセット
+     * @param dataLength コマンドデータ(IDmを除く)の長さをセット
+     * @throws FeliCaException IDmが無い、またはデータ長が上限を超えた場合にスローされます
+     */
+    static void checkCommandData(CommandSpec spec, boolean hasIDm, int dataLength) throws FeliCaException {
+        if ( spec.isIDmRequired() && !hasIDm )
+            throw new FeliCaException(spec.getName() + " : IDm required.");
+        if ( dataLength > spec.getMaxDataLength() )
+            throw new FeliCaException(spec.getName() + " : command data too long (" 
+                    + dataLength + " > " + spec.getMaxDataLength() + ")");
     }
     /**
      * 
@@ -173,7 +397,7 @@ public final class FeliCaLib {
      * @date 2011/01/20
      * @since Android API Level 9
      */
-    public static class CommandPacket implements IFeliCaCommand {
+    public static class CommandPacket implements IFeliCaCommand, IFeliCaRenderable {
         protected final int length;     //コマンド全体のデータ長 
         protected final byte commandCode;//コマンドコード
         protected final IDm  idm;        //FeliCa IDm
@@ -202,8 +426,7 @@ public final class FeliCaLib {
          * @throws FeliCaException 
          */
         public CommandPacket(byte commandCode, final byte... data) throws FeliCaException {
-            if ( !commandMap.containsKey(commandCode))
-                throw new FeliCaException("commandCode : " + commandCode + " not supported.");
+            CommandSpec spec = checkCommand(commandCode);
             this.commandCode = commandCode;
             if ( data.length >= 8 ) {
                 this.idm = new IDm(Arrays.copyOfRange(data, 0, 8));
@@ -216,6 +439,7 @@ public final class FeliCaLib {
             
             if ( this.length > 255 )
                 throw new FeliCaException("command data too long (less than 255Byte)");        
+            checkCommandData(spec, this.idm != null, this.data.length);
         }
         /**
          * コンストラクタ
@@ -226,14 +450,14 @@ public final class FeliCaLib {
          * @throws FeliCaException 
          */
         public CommandPacket(byte commandCode, IDm idm, final byte... data) throws FeliCaException {
-            if ( !commandMap.containsKey(commandCode))
-                throw new FeliCaException("commandCode : " + commandCode + " not supported.");
+            CommandSpec spec = checkCommand(commandCode);
             this.commandCode = commandCode;
             this.idm = idm;
             this.data = data;
             this.length = idm.getBytes().length + data.length + 2;
             if ( this.length > 255 )
                 throw new FeliCaException("command data too long (less than 255byte)");        
+            checkCommandData(spec, true, data.length);
         }
         /**
          * コンストラクタ
@@ -244,14 +468,14 @@ public final class FeliCaLib {
          * @throws FeliCaException 
          */
         public CommandPacket(byte commandCode, byte[] idm, final byte... data) throws FeliCaException {
-            if ( !commandMap.containsKey(commandCode))
-                throw new FeliCaException("commandCode : " + commandCode + " not supported.");
+            CommandSpec spec = checkCommand(commandCode);
             this.commandCode = commandCode;
             this.idm = new IDm(idm);
             this.data = data;
             this.length = idm.length + data.length + 2;
             if ( this.length > 255 )
                 throw new FeliCaException("command data too long (less than 255byte)");        
+            checkCommandData(spec, true, data.length);
         }
         
         /* (non-Javadoc)
@@ -261,6 +485,20 @@ public final class FeliCaLib {
         public IDm getIDm() {
             return this.idm;
         }
+        /**
+         * コマンドコードを取得します
+         * @return byte コマンドコードが戻ります
+         */
+        public byte getCommandCode() {
+            return this.commandCode;
+        }
+        /**
+         * コマンドのメタデータを取得します
+         * @return CommandSpec メタデータが戻ります
+         */
+        public CommandSpec getCommandSpec() {
+            return COMMAND_SPECS[this.commandCode & 0xff];
+        }
         /**
          * バイト列表現を戻します
          * @return byte[] このデータのバイト列表現を戻します
@@ -280,15 +518,33 @@ public final class FeliCaLib {
          */
         @Override
         public String toString() {
-           StringBuilder sb = new StringBuilder();
+           return this.render(new StringBuilder()).toString();
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder render(StringBuilder sb) {
            sb.append("FeliCa コマンドパケット \n");
-           sb.append(" コマンド名:" + commandMap.get(this.commandCode)  +  "\n");
-           sb.append(" データ長: " + Util.getHexString((byte)(this.length & 0xff)) + "\n");
-           sb.append(" コマンドコード : " + Util.getHexString(this.commandCode) +  "\n");
+           sb.append(" コマンド名:").append(getCommandName(this.commandCode)).append("\n");
+           Util.appendHex(sb.append(" データ長: "), (byte)this.length).append("\n");
+           Util.appendHex(sb.append(" コマンドコード : "), this.commandCode).append("\n");
            if ( this.idm != null )
-               sb.append(" " + this.idm.toString() + "\n");
-           sb.append(" データ: " + Util.getHexString(this.data) + "\n");
-           return sb.toString();
+               this.idm.render(sb.append(" ")).append("\n");
+           Util.appendHex(sb.append(" データ: "), this.data, 0, this.data.length).append("\n");
+           return sb;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder renderCompact(StringBuilder sb) {
+           sb.append("CMD ").append(getCommandName(this.commandCode)).append(" [");
+           Util.appendHex(sb, this.commandCode).append("] len=").append(this.length);
+           if ( this.idm != null )
+               this.idm.renderCompact(sb.append(' '));
+           Util.appendHex(sb.append(" data="), this.data, 0, this.data.length);
+           return sb;
         }
 
     }
@@ -298,7 +554,7 @@ public final class FeliCaLib {
      * @author Kazz
      * @since Android API Level 9
      */
-    public static class CommandResponse implements IFeliCaCommand {
+    public static class CommandResponse implements IFeliCaCommand, IFeliCaRenderable {
         protected final byte[] rawData;
         protected final int length;      //全体のデータ長 (FeliCaには無い)
         protected final byte responseCode;//コマンドレスポンスコード)
@@ -351,16 +607,47 @@ public final class FeliCaLib {
          */
         @Override
         public String toString() {
-           StringBuilder sb = new StringBuilder();
+           return this.render(new StringBuilder()).toString();
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder render(StringBuilder sb) {
            sb.append(" \n\n");
            sb.append("FeliCa レスポンスパケット \n");
-           sb.append(" コマンド名:" + commandMap.get(this.responseCode)  +  "\n");
-           sb.append(" データ長: " + Util.getHexString((byte)(this.length & 0xff)) + "\n");
-           sb.append(" レスポンスコード: " + Util.getHexString(this.responseCode) + "\n");
-           sb.append(" "+ this.idm.toString() + "\n");
-           sb.append(" データ: " + Util.getHexString(this.data) + "\n");
-           return sb.toString();
-        }      
+           if ( this.rawData == null )
+               return sb.append(" (レスポンスなし)\n");
+           sb.append(" コマンド名:").append(getCommandName(this.responseCode)).append("\n");
+           Util.appendHex(sb.append(" データ長: "), (byte)this.length).append("\n");
+           Util.appendHex(sb.append(" レスポンスコード: "), this.responseCode).append("\n");
+           this.idm.render(sb.append(" ")).append("\n");
+           Util.appendHex(sb.append(" データ: "), this.data, 0, this.data.length).append("\n");
+           return sb;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder renderCompact(StringBuilder sb) {
+           if ( this.rawData == null )
+               return sb.append("RES (none)");
+           this.renderCompactHeader(sb);
+           Util.appendHex(sb.append(" data="), this.data, 0, this.data.length);
+           return sb;
+        }
+        /**
+         * 1行形式の共通部分 (レスポンス名, コード, 長さ, IDm)を追記します
+         * @param sb 追記先をセット
+         * @return StringBuilder 追記先が戻ります
+         */
+        protected StringBuilder renderCompactHeader(StringBuilder sb) {
+           sb.append("RES ").append(getCommandName(this.responseCode)).append(" [");
+           Util.appendHex(sb, this.responseCode).append("] len=").append(this.length);
+           if ( this.idm != null )
+               this.idm.renderCompact(sb.append(' '));
+           return sb;
+        }
     }
     /**
      * 
@@ -370,7 +657,7 @@ public final class FeliCaLib {
      * @date 2011/01/20
      * @since Android API Level 9
      */
-    public static class IDm implements Parcelable, IFeliCaByteData {
+    public static class IDm implements Parcelable, IFeliCaByteData, IFeliCaRenderable {
         /** Parcelable need CREATOR field **/ 
         public static final Parcelable.Creator<IDm> CREATOR = 
             new Parcelable.Creator<IDm>() {
@@ -439,14 +726,31 @@ public final class FeliCaLib {
          */
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append("IDm (8byte) : " + Util.getHexString(this.getBytes()) + "\n");
-            sb.append(" 製造者コード: " + Util.getHexString(this.manufactureCode) + "\n");
+            return this.render(new StringBuilder()).toString();
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder render(StringBuilder sb) {
+            sb.append("IDm (8byte) : ");
+            Util.appendHex(sb, this.manufactureCode, 0, this.manufactureCode.length);
+            Util.appendHex(sb, this.cardIdentification, 0, this.cardIdentification.length).append("\n");
+            Util.appendHex(sb.append(" 製造者コード: "), this.manufactureCode, 0, this.manufactureCode.length).append("\n");
             sb.append(" カード識別番号:\n");
-            sb.append("   製造器:" + Util.getHexString(this.cardIdentification, 0, 2) + "\n");
-            sb.append("   日付:" + Util.getHexString(this.cardIdentification, 2, 2) + "\n");
-            sb.append("   シリアル:" + Util.getHexString(this.cardIdentification, 4, 2) + "\n");
-            return sb.toString();
+            Util.appendHex(sb.append("   製造器:"), this.cardIdentification, 0, 2).append("\n");
+            Util.appendHex(sb.append("   日付:"), this.cardIdentification, 2, 2).append("\n");
+            Util.appendHex(sb.append("   シリアル:"), this.cardIdentification, 4, 2).append("\n");
+            return sb;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder renderCompact(StringBuilder sb) {
+            sb.append("IDm=");
+            Util.appendHex(sb, this.manufactureCode, 0, this.manufactureCode.length);
+            return Util.appendHex(sb, this.cardIdentification, 0, this.cardIdentification.length);
         }
 
     }
@@ -458,7 +762,7 @@ public final class FeliCaLib {
      * @date 2011/01/20
      * @since Android API Level 9
      */
-    public static class PMm implements Parcelable, IFeliCaByteData {
+    public static class PMm implements Parcelable, IFeliCaByteData, IFeliCaRenderable {
         /** Parcelable need CREATOR field **/ 
         public static final Parcelable.Creator<PMm> CREATOR = 
             new Parcelable.Creator<PMm>() {
@@ -522,26 +826,60 @@ public final class FeliCaLib {
             buff.put(this.icCode).put(this.maximumResponseTime);
             return buff.array();
         }
+        /**
+         * 最大応答時間パラメタからコマンドの最大応答時間を求めます
+         * 
+         * <pre>
+         * T = T0 × ((B + 1) × n + (A + 1)) × 4^E  (T0 = 256 × 16 / fc ≒ 0.302ms)
+         * A:下位3ビット, B:中位3ビット, E:上位2ビット, n:ブロック数またはサービス数
+         * </pre>
+         * 
+         * @param timeoutIndex 最大応答時間パラメタの位置(TIMEOUT_REQUEST_SERVICE〜TIMEOUT_OTHER)をセット
+         * @param n ブロック数またはサービス数をセット
+         * @return long 最大応答時間(マイクロ秒)が戻ります
+         */
+        public long getMaximumResponseTime(int timeoutIndex, int n) {
+            int p = this.maximumResponseTime[timeoutIndex] & 0xff;
+            int a = p & 0x07;
+            int b = (p >> 3) & 0x07;
+            int e = (p >> 6) & 0x03;
+            return (302L * ((b + 1) * n + (a + 1))) << (2 * e);
+        }
 
         /* (non-Javadoc)
          * @see java.lang.Object#toString()
          */
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
+            return this.render(new StringBuilder()).toString();
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder render(StringBuilder sb) {
             sb.append("PMm(製造パラメータ)\n");
-            sb.append(" ICコード(2byte): " + Util.getHexString(this.icCode) + "\n");
-            sb.append("   ROM種別: " + Util.getHexString(this.icCode, 0, 1) + "\n");
-            sb.append("   IC 種別: " + Util.getHexString(this.icCode, 1, 1) + "\n");
+            Util.appendHex(sb.append(" ICコード(2byte): "), this.icCode, 0, this.icCode.length).append("\n");
+            Util.appendHex(sb.append("   ROM種別: "), this.icCode, 0, 1).append("\n");
+            Util.appendHex(sb.append("   IC 種別: "), this.icCode, 1, 1).append("\n");
             sb.append("\n");
             sb.append(" 最大応答時間パラメタ(6byte)\n");
-            sb.append("  B3(request service):" + Util.getBinString(this.maximumResponseTime, 0, 1) + "\n");
-            sb.append("  B4(request response):" + Util.getBinString(this.maximumResponseTime, 1, 1) + "\n");
-            sb.append("  B5(authenticate):" + Util.getBinString(this.maximumResponseTime, 2, 1) + "\n");
-            sb.append("  B6(read):" + Util.getBinString(this.maximumResponseTime, 3, 1) + "\n");
-            sb.append("  B7(write):" + Util.getBinString(this.maximumResponseTime, 4, 1) + "\n");
-            sb.append("  B8():" + Util.getBinString(this.maximumResponseTime, 5, 1) + "\n");
-            return sb.toString();
+            Util.appendBin(sb.append("  B3(request service):"), this.maximumResponseTime, 0, 1).append("\n");
+            Util.appendBin(sb.append("  B4(request response):"), this.maximumResponseTime, 1, 1).append("\n");
+            Util.appendBin(sb.append("  B5(authenticate):"), this.maximumResponseTime, 2, 1).append("\n");
+            Util.appendBin(sb.append("  B6(read):"), this.maximumResponseTime, 3, 1).append("\n");
+            Util.appendBin(sb.append("  B7(write):"), this.maximumResponseTime, 4, 1).append("\n");
+            Util.appendBin(sb.append("  B8():"), this.maximumResponseTime, 5, 1).append("\n");
+            return sb;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder renderCompact(StringBuilder sb) {
+            sb.append("PMm=");
+            Util.appendHex(sb, this.icCode, 0, this.icCode.length);
+            return Util.appendHex(sb, this.maximumResponseTime, 0, this.maximumResponseTime.length);
         }
     }
     
@@ -582,46 +920,152 @@ public final class FeliCaLib {
     /**
      * FeliCa ServiceCodeクラスを提供します
      * 
+     * <pre>
+     * サービスコードは16bitの整数として保持し、アクセス属性(下位6bit)は生成時に一度だけ
+     * デコードしてフラグとして保持します。値が等しいインスタンスは equals/hashCodeも等しいため、
+     * マップのキーとして使用できます。
+     * SERVICE_SUICA_HISTORY等の既知のサービスコードは valueOf(int)で共有のインスタンスが戻ります
+     * </pre>
+     * 
      * @author Kazzz
      * @date 2011/01/20
      * @since Android API Level 9
      */
      public static class ServiceCode {
-         final byte[] serviceCode;
-         final byte[] serviceCodeLE; // little endian
+         /** サービス種別 : 不明 (エリア等) */
+         public static final int TYPE_UNKNOWN = 0;
+         /** サービス種別 : ランダムサービス */
+         public static final int TYPE_RANDOM = 1;
+         /** サービス種別 : サイクリックサービス */
+         public static final int TYPE_CYCLIC = 2;
+         /** サービス種別 : パースサービス */
+         public static final int TYPE_PURSE = 3;
+         
+         private static final int FLAG_VALID = 0x100;          // 2バイトのサービスコード
+         private static final int FLAG_AUTH_REQUIRED = 0x200;  // 認証が必要
+         private static final int FLAG_WRITABLE = 0x400;       // 書込み可能
+         private static final int TYPE_SHIFT = 12;
+         
+         private static final ServiceCode[] KNOWN = {
+             new ServiceCode(SERVICE_SUICA_INOUT),
+             new ServiceCode(SERVICE_SUICA_HISTORY),
+             new ServiceCode(SERVICE_FELICA_LITE_READONLY),
+             new ServiceCode(SERVICE_FELICA_LITE_READWRITE),
+             new ServiceCode(SERVICE_EDY_NUMBER),
+             new ServiceCode(SERVICE_EDY_BALANCE),
+             new ServiceCode(SERVICE_EDY_HISTORY),
+         };
+         
+         final int code;       // サービスコード (16bit)
+         final int flags;      // アクセス属性(下位6bit) + FLAG_* + 種別
+         final byte[] raw;     // 2バイト以外のバイト列で生成した場合のみ保持します
          /**
           * コンストラクタ
-          * @param bytes バイト列をセット
+          * @param bytes バイト列(little endian)をセット
           */
          public ServiceCode(byte[] bytes) {
-             this.serviceCode = bytes;
-             if (bytes.length == 2) {
-                 this.serviceCodeLE = new byte[] {bytes[1], bytes[0]};
+             if ( bytes.length == 2 ) {
+                 this.code = Util.getU16LE(bytes, 0);
+                 this.flags = decode(this.code);
+                 this.raw = null;
              } else {
-                 this.serviceCodeLE = null;
+                 this.code = -1;
+                 this.flags = 0;
+                 this.raw = bytes.clone();
              }
          }
+         /**
+          * コンストラクタ
+          * @param serviceCode サービスコードをセット
+          */
          public ServiceCode(int serviceCode) {
-             this(new byte[]{(byte) (serviceCode & 0xff), (byte) (serviceCode >> 8)});
+             this.code = serviceCode & 0xffff;
+             this.flags = decode(this.code);
+             this.raw = null;
+         }
+         /**
+          * サービスコードのインスタンスを取得します
+          * @param serviceCode サービスコードをセット
+          * @return ServiceCode 既知のサービスコードの場合は共有のインスタンスが戻ります
+          */
+         public static ServiceCode valueOf(int serviceCode) {
+             int c = serviceCode & 0xffff;
+             for ( ServiceCode s : KNOWN ) {
+                 if ( s.code == c ) return s;
+             }
+             return new ServiceCode(c);
+         }
+         /**
+          * アクセス属性をデコードしてフラグを生成します
+          */
+         private static int decode(int code) {
+             int accessInfo = code & 0x3f; // 下位6bitがアクセス情報
+             int type;
+             if ( accessInfo >= 0x08 && accessInfo <= 0x0b ) {
+                 type = TYPE_RANDOM;
+             } else if ( accessInfo >= 0x0c && accessInfo <= 0x0f ) {
+                 type = TYPE_CYCLIC;
+             } else if ( accessInfo >= 0x10 && accessInfo <= 0x17 ) {
+                 type = TYPE_PURSE;
+             } else {
+                 type = TYPE_UNKNOWN;
+             }
+             int flags = accessInfo | FLAG_VALID | (type << TYPE_SHIFT);
+             if ( (accessInfo & 0x1) == 0 ) 
+                 flags |= FLAG_AUTH_REQUIRED;
+             if ( (accessInfo & 0x2) == 0 || accessInfo == 0x13 || accessInfo == 0x12 ) 
+                 flags |= FLAG_WRITABLE;
+             return flags;
          }
          
          /* 
           * サービスコードをバイト列として返します。
-          * @return サービスコードのバイト列表現
+          * @return サービスコードのバイト列表現 (little endian)
           */
          public byte[] getBytes() {
-             return this.serviceCode;
+             if ( this.raw != null ) return this.raw.clone();
+             return new byte[] {(byte) (this.code & 0xff), (byte) (this.code >> 8)};
+         }
+         /**
+          * サービスコードをバイト列(little endian)に書き込みます
+          * @param dest 書き込み先をセット
+          * @param offset 書き込み先のオフセットをセット
+          * @return int 書き込んだ次のオフセットが戻ります
+          */
+         public int putBytes(byte[] dest, int offset) {
+             if ( this.raw != null ) {
+                 System.arraycopy(this.raw, 0, dest, offset, this.raw.length);
+                 return offset + this.raw.length;
+             }
+             return Util.putU16LE(dest, offset, this.code);
+         }
+         /**
+          * サービスコードを取得します
+          * @return int サービスコードが戻ります (2バイト以外のバイト列で生成した場合は -1)
+          */
+         public int getCode() {
+             return this.code;
+         }
+         /**
+          * アクセス属性(サービスコードの下位6bit)を取得します
+          * @return int アクセス属性が戻ります
+          */
+         public int getAccessAttribute() {
+             return this.flags & 0x3f;
+         }
+         /**
+          * サービス種別を取得します
+          * @return int TYPE_RANDOM, TYPE_CYCLIC, TYPE_PURSE, TYPE_UNKNOWNのいずれかが戻ります
+          */
+         public int getType() {
+             return this.flags >>> TYPE_SHIFT;
          }
          /**
           * このサービスコードは、認証が必要か否かを検査します
           * @return boolean 認証が必要ならTrueが戻ります
           */
          public boolean encryptNeeded() {
-             boolean ret = false;
-             if (serviceCodeLE != null) {
-                 ret = (serviceCodeLE[1] & 0x1) == 0;
-             }
-             return ret;
+             return (this.flags & FLAG_AUTH_REQUIRED) != 0;
          }
          
          /**
@@ -629,12 +1073,24 @@ public final class FeliCaLib {
           * @return boolean 書込み可能ならTrueが戻ります
           */
          public boolean isWritable() {
-             boolean ret = false;
-             if (serviceCodeLE != null) {
-                 int accessInfo = serviceCodeLE[1] & 0x3F; // 下位6bitがアクセス情報
-                 ret = (accessInfo & 0x2) == 0 || accessInfo == 0x13 || accessInfo==0x12; 
-             }
-             return ret;
+             return (this.flags & FLAG_WRITABLE) != 0;
+         }
+         /* (non-Javadoc)
+          * @see java.lang.Object#hashCode()
+          */
+         @Override
+         public int hashCode() {
+             return this.raw != null ? Arrays.hashCode(this.raw) : this.code;
+         }
+         /* (non-Javadoc)
+          * @see java.lang.Object#equals(java.lang.Object)
+          */
+         @Override
+         public boolean equals(Object obj) {
+             if ( this == obj ) return true;
+             if ( !(obj instanceof ServiceCode) ) return false;
+             ServiceCode other = (ServiceCode) obj;
+             return this.code == other.code && Arrays.equals(this.raw, other.raw);
          }
          
          /** 
@@ -644,29 +1100,29 @@ public final class FeliCaLib {
          @Override
          public String toString() {
              StringBuilder sb = new StringBuilder();
-             sb.append(Util.getHexString(serviceCodeLE));
-             if (serviceCodeLE != null) {
-                 int accessInfo = serviceCodeLE[1] & 0x3F; // 下位6bitがアクセス情報
-                 switch (accessInfo) {
-                 case 0x09: sb.append(" 固定長RW"); break; // RW: ReadWrite
-                 case 0x0b: sb.append(" 固定長RO"); break; // RO: ReadOnly
-                 case 0x0d: sb.append(" 循環RW"); break;
-                 case 0x0f: sb.append(" 循環RO"); break;
-                 case 0x11: sb.append(" 加減算直接"); break;
-                 case 0x13: sb.append(" 加減算戻入"); break;
-                 case 0x15: sb.append(" 加減算減算"); break;
-                 case 0x17: sb.append(" 加減算RO"); break;
-                 //
-                 case 0x08: sb.append(" 固定長RW(Locked)"); break; // RW: ReadWrite
-                 case 0x0a: sb.append(" 固定長RO(Locked)"); break; // RO: ReadOnly
-                 case 0x0c: sb.append(" 循環RW(Locked)"); break;
-                 case 0x0e: sb.append(" 循環RO(Locked)"); break;
-                 case 0x10: sb.append(" 加減算直接(Locked)"); break;
-                 case 0x12: sb.append(" 加減算戻入(Locked)"); break;
-                 case 0x14: sb.append(" 加減算減算(Locked)"); break;
-                 case 0x16: sb.append(" 加減算RO(Locked)"); break;
-                 }
-                 
+             if ( (this.flags & FLAG_VALID) == 0 ) {
+                 return Util.appendHex(sb, this.raw, 0, this.raw.length).toString();
+             }
+             Util.appendHex(sb, (byte) (this.code >> 8));
+             Util.appendHex(sb, (byte) this.code);
+             switch (this.getAccessAttribute()) {
+             case 0x09: sb.append(" 固定長RW"); break; // RW: ReadWrite
+             case 0x0b: sb.append(" 固定長RO"); break; // RO: ReadOnly
+             case 0x0d: sb.append(" 循環RW"); break;
+             case 0x0f: sb.append(" 循環RO"); break;
+             case 0x11: sb.append(" 加減算直接"); break;
+             case 0x13: sb.append(" 加減算戻入"); break;
+             case 0x15: sb.append(" 加減算減算"); break;
+             case 0x17: sb.append(" 加減算RO"); break;
+             //
+             case 0x08: sb.append(" 固定長RW(Locked)"); break; // RW: ReadWrite
+             case 0x0a: sb.append(" 固定長RO(Locked)"); break; // RO: ReadOnly
+             case 0x0c: sb.append(" 循環RW(Locked)"); break;
+             case 0x0e: sb.append(" 循環RO(Locked)"); break;
+             case 0x10: sb.append(" 加減算直接(Locked)"); break;
+             case 0x12: sb.append(" 加減算戻入(Locked)"); break;
+             case 0x14: sb.append(" 加減算減算(Locked)"); break;
+             case 0x16: sb.append(" 加減算RO(Locked)"); break;
              }
              //sb.append("\n");
              return sb.toString();
@@ -791,43 +1247,115 @@ public final class FeliCaLib {
         public static final byte LENGTH_3_BYTE = (byte) 0x00; 
         public static final byte ACCESSMODE_DECREMENT = 0x00; 
         public static final byte ACCESSMODE_CACHEBACK = 0x01; 
-        final byte lengthAndaccessMode; // 
-        final byte serviceCodeListOrder; // 
-        final byte[] blockNumber;
+        /** ブロック番号の最大値 (3バイトエレメント) */
+        public static final int MAX_BLOCK_NUMBER = 0xffff;
+        final int accessMode;           // アクセスモード (3bit)
+        final int serviceCodeListOrder; // サービスコードリスト順 (4bit)
+        final int blockNumber;          // ブロック番号 (0〜65535)
+        final boolean twoByte;          // 2バイトエレメントの場合 true
         
         /**
          * コンストラクタ
          * @param accessMode アクセスモードを0又は1でセット
          * @param serviceCodeListOrder サービスコードリスト順をセット
-         * @param blockNumber 対象のブロック番号を1バイト又は2バイトでセット
+         * @param blockNumber 対象のブロック番号を1バイト又は2バイト(big endian)でセット
          */
         public BlockListElement (byte accessMode, byte serviceCodeListOrder, byte... blockNumber ) {
+            this.accessMode = accessMode & 0x07;
+            this.serviceCodeListOrder = serviceCodeListOrder & 0x0F;
             if ( blockNumber.length > 1 ) {
-                this.lengthAndaccessMode =  (byte)(accessMode | LENGTH_2_BYTE & 0xFF);
+                this.blockNumber = Util.getU16BE(blockNumber, 0);
+                this.twoByte = false;
             } else {
-                this.lengthAndaccessMode =  (byte)(accessMode | LENGTH_3_BYTE & 0xFF);
+                this.blockNumber = blockNumber[0] & 0xff;
+                this.twoByte = true;
             }
-            this.serviceCodeListOrder = (byte) (serviceCodeListOrder & 0x0F);
+        }
+        /**
+         * コンストラクタ
+         * 
+         * <pre>
+         * ブロック番号が255以下の場合は 2バイト、それ以外は 3バイトのエレメントになります
+         * </pre>
+         * @param accessMode アクセスモードを0又は1でセット
+         * @param serviceCodeListOrder サービスコードリスト順をセット
+         * @param blockNumber 対象のブロック番号(0〜65535)をセット
+         */
+        public BlockListElement (int accessMode, int serviceCodeListOrder, int blockNumber) {
+            checkBlockNumber(blockNumber);
+            this.accessMode = accessMode & 0x07;
+            this.serviceCodeListOrder = serviceCodeListOrder & 0x0F;
             this.blockNumber = blockNumber;
+            this.twoByte = blockNumber <= 0xff;
+        }
+        /**
+         * ブロック番号を取得します
+         * @return int ブロック番号が戻ります
+         */
+        public int getBlockNumber() {
+            return this.blockNumber;
         }
         /* (non-Javadoc)
          * @see net.felica.IFeliCaByteData#getBytes()
          */
         @Override
         public byte[] getBytes() {
-            if ( (this.lengthAndaccessMode & LENGTH_2_BYTE) == 1 ) {
-                ByteBuffer buff = ByteBuffer.allocate(2);
-                buff.put( (byte)
-                        ((this.lengthAndaccessMode | this.serviceCodeListOrder) & 0xFF))
-                    .put(this.blockNumber[0]);
-                return buff.array();
-            } else {
-                ByteBuffer buff = ByteBuffer.allocate(3);
-                buff.put( (byte)
-                        ((this.lengthAndaccessMode | this.serviceCodeListOrder) & 0xFF))
-                    .put(this.blockNumber[1])
-                    .put(this.blockNumber[0]); //little endian
-                return buff.array();
+            byte[] buff = new byte[this.twoByte ? 2 : 3];
+            this.putBytes(buff, 0);
+            return buff;
+        }
+        /**
+         * エレメントをバイト列に書き込みます
+         * @param dest 書き込み先をセット
+         * @param offset 書き込み先のオフセットをセット
+         * @return int 書き込んだ次のオフセットが戻ります
+         */
+        public int putBytes(byte[] dest, int offset) {
+            int head = (this.accessMode << 4) | this.serviceCodeListOrder;
+            if ( this.twoByte ) {
+                dest[offset] = (byte) (LENGTH_2_BYTE | head);
+                dest[offset + 1] = (byte) this.blockNumber;
+                return offset + 2;
+            }
+            dest[offset] = (byte) head;
+            return Util.putU16LE(dest, offset + 1, this.blockNumber); //little endian
+        }
+        /**
+         * ブロック番号を表現できる最短のエレメントの長さを取得します
+         * @param blockNumber ブロック番号をセット
+         * @return int エレメントの長さ (2又は3)が戻ります
+         */
+        public static int encodedLength(int blockNumber) {
+            return blockNumber <= 0xff ? 2 : 3;
+        }
+        /**
+         * ブロックリストエレメントを最短の形式でバイト列に直接書き込みます
+         * 
+         * <pre>
+         * エレメントのオブジェクトを生成せずにコマンドデータを組み立てるために使用します
+         * </pre>
+         * @param dest 書き込み先をセット
+         * @param offset 書き込み先のオフセットをセット
+         * @param accessMode アクセスモードを0又は1でセット
+         * @param serviceCodeListOrder サービスコードリスト順をセット
+         * @param blockNumber 対象のブロック番号(0〜65535)をセット
+         * @return int 書き込んだ次のオフセットが戻ります
+         */
+        public static int encode(byte[] dest, int offset
+                , int accessMode, int serviceCodeListOrder, int blockNumber) {
+            checkBlockNumber(blockNumber);
+            int head = ((accessMode & 0x07) << 4) | (serviceCodeListOrder & 0x0F);
+            if ( blockNumber <= 0xff ) {
+                dest[offset] = (byte) (LENGTH_2_BYTE | head);
+                dest[offset + 1] = (byte) blockNumber;
+                return offset + 2;
+            }
+            dest[offset] = (byte) head;
+            return Util.putU16LE(dest, offset + 1, blockNumber);
+        }
+        private static void checkBlockNumber(int blockNumber) {
+            if ( blockNumber < 0 || blockNumber > MAX_BLOCK_NUMBER ) {
+                throw new IllegalArgumentException("blockNumber : " + blockNumber);
             }
         }
 
@@ -838,10 +1366,11 @@ public final class FeliCaLib {
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append("ブロックリストエレメント\n");
-            sb.append("  データ長 : " + this.getBytes().length + " byte\n");
-            sb.append("  アクセスモード        : " + Util.getBinString((byte)(this.lengthAndaccessMode & 0x8F)) + "\n");
-            sb.append("  サービスコードリスト順: " + Util.getHexString(this.serviceCodeListOrder) + "\n");
-            sb.append("  ブロックナンバー      : " + Util.getHexString(this.blockNumber) + "\n");
+            sb.append("  データ長 : ").append(this.twoByte ? 2 : 3).append(" byte\n");
+            sb.append("  アクセスモード        : ").append(Util.getBinString(
+                    (byte)((this.twoByte ? LENGTH_2_BYTE : 0) | (this.accessMode << 4)))).append("\n");
+            Util.appendHex(sb.append("  サービスコードリスト順: "), (byte)this.serviceCodeListOrder).append("\n");
+            sb.append("  ブロックナンバー      : ").append(this.blockNumber).append("\n");
             return sb.toString();
         }   
     }
@@ -853,7 +1382,7 @@ public final class FeliCaLib {
      * @since Android API Level 9
      *
      */
-    public static class MemoryConfigurationBlock extends Block implements IFeliCaByteData {
+    public static class MemoryConfigurationBlock extends Block implements IFeliCaByteData, IFeliCaRenderable {
         /**
          * コンストラクタ
          * @param mcData MC領域のデータブロック(16バイト)をセット
@@ -887,34 +1416,58 @@ public final class FeliCaLib {
             
             boolean result = true;
             for ( int a : addrs ) {
-                byte b = (byte) ((a & 0xff) + 1);
-                if ( a < 8 ) {
-                    result &= (this.data[0] & b ) == b;
-                    continue;
-                } else 
-                if ( a < 16 ) {
-                    result &= (this.data[1] & b ) == b;
-                    continue;
-                } else 
-                result &= (this.data[2] & b ) == b;
+                result &= this.isWritableBlock(a);
             }
             return result;
         }
+        /**
+         * ブロックが書きこみ可能な否かを検査します (可変長引数の配列を生成しません)
+         * 
+         * @param a 調べたいブロック番号へのアドレスをセット
+         * @return　書き込み可能な場合にはtrueが戻ります
+         */
+        private boolean isWritableBlock(int a) {
+            byte b = (byte) ((a & 0xff) + 1);
+            if ( a < 8 ) {
+                return (this.data[0] & b ) == b;
+            } else 
+            if ( a < 16 ) {
+                return (this.data[1] & b ) == b;
+            } else 
+            return (this.data[2] & b ) == b;
+        }
         /* (non-Javadoc)
          * @see java.lang.Object#toString()
          */
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
+            return this.render(new StringBuilder()).toString();
+        }   
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#render(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder render(StringBuilder sb) {
             sb.append("メモリコンフィグレーションブロック(MC)\n");
-            sb.append("  NdefSupport  : " + this.isNdefSupport() + "\n");
+            sb.append("  NdefSupport  : ").append(this.isNdefSupport()).append("\n");
             sb.append("  MemoryConfig : \n");
             for ( int i = 0; i < this.data.length; i++ ) {
-                sb.append("    ブロック  " + i + " = "  
-                        + (this.isWritable(i) ? "1:RW" : "0:RO") + "\n");
+                sb.append("    ブロック  ").append(i).append(" = ")
+                  .append(this.isWritableBlock(i) ? "1:RW" : "0:RO").append("\n");
             }
-            return sb.toString();
-        }   
+            return sb;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.IFeliCaRenderable#renderCompact(java.lang.StringBuilder)
+         */
+        @Override
+        public StringBuilder renderCompact(StringBuilder sb) {
+            sb.append("MC ndef=").append(this.isNdefSupport()).append(" rw=");
+            for ( int i = 0; i < this.data.length; i++ ) {
+                sb.append(this.isWritableBlock(i) ? '1' : '0');
+            }
+            return sb;
+        }
         
     }
     /**
@@ -927,8 +1480,60 @@ public final class FeliCaLib {
      */
     public static final CommandResponse execute(Tag tag, CommandPacket commandPacket) throws FeliCaException {
         byte[] result = executeRaw(tag, commandPacket.getBytes());
+        checkResponse(commandPacket.getCommandSpec(), result);
         return new CommandResponse(result);
     }
+    /**
+     * カード取引の期限と通信回数の上限の範囲でコマンドを実行します
+     *
+     * <pre>
+     * 送信前に期限と通信回数を検査し、超過している場合は送信せずに例外をスローします。
+     * 期限までの残り時間を受信タイムアウトとして使用します
+     * </pre>
+     *
+     * @param Tag Tagクラスの参照をセットします
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @param context カード取引のコンテキストをセットします (nullの場合は制限しません)
+     * @return CommandResponse コマンドの実行結果が戻ります 
+     * @throws TransactionExpiredException 期限または通信回数を超過する場合にスローされます
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final CommandResponse execute(Tag tag, CommandPacket commandPacket
+            , TransactionContext context) throws FeliCaException {
+        return execute(tag, commandPacket, context, null);
+    }
+    /**
+     * カード取引のコンテキストとタグ毎のインタセプタを指定してコマンドを実行します
+     *
+     * @param Tag Tagクラスの参照をセットします
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @param context カード取引のコンテキストをセットします (nullの場合は制限しません)
+     * @param localInterceptors タグ毎のインタセプタをセットします (無い場合は null)
+     * @return CommandResponse コマンドの実行結果が戻ります 
+     * @throws TransactionExpiredException 期限または通信回数を超過する場合にスローされます
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final CommandResponse execute(Tag tag, CommandPacket commandPacket
+            , TransactionContext context, ICommandInterceptor[] localInterceptors) throws FeliCaException {
+        byte[] result = executeRaw(tag, commandPacket, context, localInterceptors);
+        checkResponse(commandPacket.getCommandSpec(), result);
+        return new CommandResponse(result);
+    }
+    /**
+     * コマンドの実行結果が期待されるレスポンスか検査します
+     * 
+     * @param spec 実行したコマンドのメタデータをセット
+     * @param result コマンドの実行結果バイト列をセット (Tag Lostの場合は null)
+     * @throws FeliCaException レスポンスコードまたは長さが不正な場合にスローされます
+     */
+    static void checkResponse(CommandSpec spec, byte[] result) throws FeliCaException {
+        if ( result == null ) return; //Tag Lost
+        if ( result.length < 10 ) 
+            throw new FeliCaException(spec.getName() + " : response too short (" + result.length + "byte)");
+        if ( !spec.accepts(result[1]) )
+            throw new FeliCaException(spec.getName() + " : unexpected response code " 
+                    + Util.getHexString(result[1]));
+    }
     /**
      * Rawデータを使ってコマンドを実行します
      * 
@@ -944,6 +1549,96 @@ public final class FeliCaLib {
             throw new FeliCaException(e);
         }
     }
+    /**
+     * カード取引の期限と通信回数の上限の範囲でコマンドを実行し、Rawデータで結果を取得します
+     * 
+     * @param Tag Tagクラスの参照をセットします
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @param context カード取引のコンテキストをセットします (nullの場合は制限しません)
+     * @return byte[] コマンドの実行結果バイト列で戻ります (Tag Lostの場合は null)
+     * @throws TransactionExpiredException 期限または通信回数を超過する場合にスローされます
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final byte[] executeRaw(Tag tag, CommandPacket commandPacket
+            , TransactionContext context) throws FeliCaException {
+        return executeRaw(tag, commandPacket, context, null);
+    }
+    /**
+     * カード取引のコンテキストとタグ毎のインタセプタを指定してコマンドを実行し、Rawデータで結果を取得します
+     * 
+     * @param Tag Tagクラスの参照をセットします
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @param context カード取引のコンテキストをセットします (nullの場合は制限しません)
+     * @param localInterceptors タグ毎のインタセプタをセットします (無い場合は null)
+     * @return byte[] コマンドの実行結果バイト列で戻ります (Tag Lostの場合は null)
+     * @throws TransactionExpiredException 期限または通信回数を超過する場合にスローされます
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final byte[] executeRaw(Tag tag, CommandPacket commandPacket
+            , TransactionContext context, ICommandInterceptor[] localInterceptors) throws FeliCaException {
+        int timeout = context != null ? context.beginCommand(commandPacket.getCommandCode()) : 0;
+        try {
+            return transceive(tag, commandPacket.getBytes(), timeout, localInterceptors);
+        } catch (NfcException e) {
+            throw new FeliCaException(e);
+        }
+    }
+    /**
+     * 全てのタグのコマンドに割り込むインタセプタを登録します
+     * 
+     * @param interceptor 登録するインタセプタをセットします
+     */
+    public static void addInterceptor(ICommandInterceptor interceptor) {
+        synchronized ( INTERCEPTOR_LOCK ) {
+            interceptors = addInterceptor(interceptors, interceptor);
+        }
+    }
+    /**
+     * 全てのタグのコマンドに割り込むインタセプタの登録を解除します
+     * 
+     * @param interceptor 解除するインタセプタをセットします
+     */
+    public static void removeInterceptor(ICommandInterceptor interceptor) {
+        synchronized ( INTERCEPTOR_LOCK ) {
+            interceptors = removeInterceptor(interceptors, interceptor);
+        }
+    }
+    /**
+     * インタセプタの配列に追加した複製を生成します (配列は登録後に変更しないため、コピーオンライトで管理します)
+     * 
+     * @param array 元の配列をセットします (nullは空とみなします)
+     * @param interceptor 追加するインタセプタをセットします
+     * @return ICommandInterceptor[] 追加した配列が戻ります
+     */
+    public static ICommandInterceptor[] addInterceptor(ICommandInterceptor[] array
+            , ICommandInterceptor interceptor) {
+        if ( interceptor == null ) throw new IllegalArgumentException("interceptor is null");
+        int n = array != null ? array.length : 0;
+        ICommandInterceptor[] result = new ICommandInterceptor[n + 1];
+        if ( n > 0 ) System.arraycopy(array, 0, result, 0, n);
+        result[n] = interceptor;
+        return result;
+    }
+    /**
+     * インタセプタの配列から削除した複製を生成します
+     * 
+     * @param array 元の配列をセットします (nullは空とみなします)
+     * @param interceptor 削除するインタセプタをセットします
+     * @return ICommandInterceptor[] 削除した配列が戻ります (含まれていない場合は元の配列)
+     */
+    public static ICommandInterceptor[] removeInterceptor(ICommandInterceptor[] array
+            , ICommandInterceptor interceptor) {
+        if ( array == null ) return NO_INTERCEPTORS;
+        for ( int i = 0; i < array.length; i++ ) {
+            if ( array[i] == interceptor ) {
+                ICommandInterceptor[] result = new ICommandInterceptor[array.length - 1];
+                System.arraycopy(array, 0, result, 0, i);
+                System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+                return result;
+            }
+        }
+        return array;
+    }
     /**
      * INfcTag#transceiveを実行します
      * 
@@ -953,20 +1648,212 @@ public final class FeliCaLib {
      * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
      */
     public static final byte[] transceive(Tag tag, byte[] data) throws NfcException {
+        return transceive(tag, data, 0);
+    }
+    /**
+     * 受信タイムアウトを指定して INfcTag#transceiveを実行します
+     * 
+     * <pre>
+     * NfcF#setTimeoutは Android API Level 14以降でのみ使用できるため、
+     * それ以前の環境ではタイムアウトの指定は無視されます
+     * </pre>
+     * 
+     * @param Tag Tagクラスの参照をセットします
+     * @param data 送信するバイト列をセットします
+     * @param timeoutMillis 受信タイムアウト(ミリ秒)をセットします (0以下の場合は既定値)
+     * @return byte[] コマンドの実行結果バイト列で戻ります 
+     * @throws NfcException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final byte[] transceive(Tag tag, byte[] data, int timeoutMillis) throws NfcException {
+        return transceive(tag, data, timeoutMillis, null);
+    }
+    /**
+     * インタセプタを呼び出しながら INfcTag#transceiveを実行します
+     * 
+     * <pre>
+     * 全体とタグ毎のインタセプタがどちらも無い場合は、インタセプタに関する処理を一切行いません
+     * </pre>
+     * 
+     * @param Tag Tagクラスの参照をセットします
+     * @param data 送信するバイト列をセットします
+     * @param timeoutMillis 受信タイムアウト(ミリ秒)をセットします (0以下の場合は既定値)
+     * @param localInterceptors タグ毎のインタセプタをセットします (無い場合は null)
+     * @return byte[] コマンドの実行結果バイト列で戻ります (Tag Lostの場合は null)
+     * @throws NfcException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final byte[] transceive(Tag tag, byte[] data, int timeoutMillis
+            , ICommandInterceptor[] localInterceptors) throws NfcException {
         //NfcFはFeliCa
-        NfcF nfcF = NfcF.get(tag);
+        NfcF nfcF = connectionOf(tag);
         if ( nfcF == null ) throw new NfcException("tag is not FeliCa(NFC-F) ");
+        ICommandInterceptor[] global = interceptors;
+        ICommandInterceptor[] local = localInterceptors != null ? localInterceptors : NO_INTERCEPTORS;
+        if ( global.length == 0 && local.length == 0 ) {
+            try {
+                return transceive(nfcF, data, timeoutMillis);
+            } catch (IOException e) {
+                throw new NfcException(e);
+            }
+        }
+        byte[] request = data;
+        long start = 0;
+        boolean sent = false; // 送信前に失敗した場合の応答時間は 0
+        byte[] result;
+        long nanos;
         try {
-            nfcF.connect();
+            for ( ICommandInterceptor i : global ) request = i.beforeSend(tag, request);
+            for ( ICommandInterceptor i : local ) request = i.beforeSend(tag, request);
+            start = System.nanoTime();
+            sent = true;
+            result = transceive(nfcF, request, timeoutMillis);
+            nanos = System.nanoTime() - start;
+        } catch (TagLostException e) {
+            result = null; // beforeSendで模擬した Tag Lost
+            nanos = 0;
+        } catch (IOException e) {
+            nanos = sent ? System.nanoTime() - start : 0;
+            for ( ICommandInterceptor i : local ) i.onError(tag, request, e, nanos);
+            for ( ICommandInterceptor i : global ) i.onError(tag, request, e, nanos);
+            throw new NfcException(e);
+        }
+        for ( int i = local.length - 1; i >= 0; i-- ) result = local[i].afterReceive(tag, request, result, nanos);
+        for ( int i = global.length - 1; i >= 0; i-- ) result = global[i].afterReceive(tag, request, result, nanos);
+        return result;
+    }
+    /**
+     * NfcFに接続してフレームを送受信し、統計を記録します
+     * 
+     * @return byte[] 受信したフレームが戻ります (Tag Lostの場合は null)
+     * @throws IOException Tag Lost以外の通信エラーの場合にスローされます
+     */
+    private static byte[] transceive(NfcF nfcF, byte[] data, int timeoutMillis) throws IOException {
+        if ( nfcF == SHARED_CONNECTION.get() ) {
+            synchronized ( nfcF ) {
+                return transceive(nfcF, data, timeoutMillis, true);
+            }
+        }
+        return transceive(nfcF, data, timeoutMillis, false);
+    }
+    /**
+     * NfcFに接続してフレームを送受信し、統計を記録します
+     * 
+     * @param shared 共有している接続の場合 trueをセット (閉じずにタイムアウトだけを元に戻します)
+     * @return byte[] 受信したフレームが戻ります (Tag Lostの場合は null)
+     * @throws IOException Tag Lost以外の通信エラーの場合にスローされます
+     */
+    private static byte[] transceive(NfcF nfcF, byte[] data, int timeoutMillis, boolean shared) 
+            throws IOException {
+        try {
+            if ( !shared || !nfcF.isConnected() ) {
+                nfcF.connect();
+            }
+            int previous = timeoutMillis > 0 ? limitTimeout(nfcF, timeoutMillis) : 0;
+            long start = System.nanoTime();
+            byte[] result = null;
+            FeliCaStatus outcome = FeliCaStatus.IO_ERROR;
             try {
-                return nfcF.transceive(data);
+                result = nfcF.transceive(data);
+                outcome = FeliCaStats.classify(result);
+                return result;
+            } catch (TagLostException e) {
+                outcome = FeliCaStatus.TAG_LOST;
+                throw e;
             } finally {
-                nfcF.close();
+                long nanos = System.nanoTime() - start;
+                FeliCaStats.record(data, result, outcome, nanos);
+                FrameRecorder.record(data, result, outcome, nanos);
+                if ( !shared ) {
+                    nfcF.close(); // タイムアウトも既定値に戻る
+                } else if ( previous > 0 ) {
+                    resetTimeout(nfcF, previous);
+                }
             }
         } catch (TagLostException e) {
+            if ( shared ) {
+                nfcF.close(); // 接続を保持している側が再接続する
+            }
             return null; //Tag Lost
-        } catch (IOException e) {
-            throw new NfcException(e);
+        }
+    }
+    /**
+     * タグの NfcFを取得します
+     * 
+     * <pre>
+     * Tagに同時に接続できる NfcFは1つだけのため、shareConnection()で共有されている
+     * 同じ Tagの NfcFがあればそれを使用します
+     * </pre>
+     */
+    private static NfcF connectionOf(Tag tag) {
+        NfcF shared = SHARED_CONNECTION.get();
+        return shared != null && shared.getTag() == tag ? shared : NfcF.get(tag);
+    }
+    /**
+     * 接続を保持したままにする NfcFを共有します
+     * 
+     * <pre>
+     * 同じ Tagに対するコマンドは新たに接続せずにこの NfcFを使用し、通信後も閉じません。
+     * 共有している NfcFの接続、送受信、切断は、この NfcFで同期して行ってください
+     * (共有できる NfcFは1つだけです)
+     * </pre>
+     * 
+     * @param nfcF 共有する NfcFをセット
+     */
+    public static void shareConnection(NfcF nfcF) {
+        SHARED_CONNECTION.set(nfcF);
+    }
+    /**
+     * NfcFの共有を解除します
+     * @param nfcF 共有を解除する NfcFをセット (共有されていない場合は何もしません)
+     */
+    public static void releaseConnection(NfcF nfcF) {
+        SHARED_CONNECTION.compareAndSet(nfcF, null);
+    }
+    /**
+     * NfcFの受信タイムアウトを短縮します
+     * 
+     * <pre>
+     * NfcF#getTimeout/setTimeoutは API Level 14で追加されたため、リフレクションで呼び出します。
+     * メソッドが無い場合は何もしません (期限はコマンドの間でだけ検査されます)
+     * </pre>
+     * 
+     * @param nfcF 接続済みの NfcFをセット
+     * @param timeoutMillis 受信タイムアウト(ミリ秒)をセット
+     * @return int 変更前のタイムアウト(ミリ秒)が戻ります (変更しなかった場合は 0)
+     */
+    private static int limitTimeout(NfcF nfcF, int timeoutMillis) {
+        if ( NFCF_GET_TIMEOUT == null || NFCF_SET_TIMEOUT == null ) return 0;
+        try {
+            // 現在の値より長くはしない
+            int current = (Integer) NFCF_GET_TIMEOUT.invoke(nfcF);
+            NFCF_SET_TIMEOUT.invoke(nfcF, current > 0 ? Math.min(timeoutMillis, current) : timeoutMillis);
+            return current;
+        } catch (IllegalAccessException e) {
+            return 0; // 既定のタイムアウトのまま送信する
+        } catch (InvocationTargetException e) {
+            return 0;
+        }
+    }
+    /**
+     * limitTimeout()で変更したタイムアウトを元に戻します
+     */
+    private static void resetTimeout(NfcF nfcF, int timeoutMillis) {
+        try {
+            NFCF_SET_TIMEOUT.invoke(nfcF, timeoutMillis);
+        } catch (IllegalAccessException e) {
+            // 次の接続で既定値に戻る
+        } catch (InvocationTargetException e) {
+            // 次の接続で既定値に戻る
+        }
+    }
+    /**
+     * publicメソッドを検索します
+     * @return Method メソッドが戻ります (無い場合は null)
+     */
+    private static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
         }
     }
     
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import static net.kazzz.felica.lib.FeliCaLib.RESPONSE_POLLING;
+import static net.kazzz.felica.lib.FeliCaLib.RESPONSE_READ_WO_ENCRYPTION;
+import static net.kazzz.felica.lib.FeliCaLib.RESPONSE_WRITE_WO_ENCRYPTION;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.kazzz.felica.FeliCaStatus;
+
+/**
+ * コマンドコード毎、IC種別毎の応答時間の統計を提供します
+ *
+ * <pre>
+ * FeliCaLib#transceive、FeliCaPollerの全ての通信をコマンドコード毎と IC種別(PMmの2バイト目)毎の
+ * LatencyHistogramに記録します。ヒストグラムは最初に記録する時に一度だけ生成し、
+ * 以降の記録はロックもオブジェクトの生成も行いません。
+ *
+ * IC種別はポーリングのレスポンスの PMmから取得し、次のポーリングまでの通信に適用します。
+ * (リーダーは同時に1枚のカードとだけ通信することを前提にしています)
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/23
+ * @since Android API Level 10
+ *
+ */
+
+public final class FeliCaStats {
+    /** IC種別が不明な場合の値 */
+    public static final int IC_TYPE_UNKNOWN = -1;
+
+    private static final AtomicReferenceArray<LatencyHistogram> BY_COMMAND =
+        new AtomicReferenceArray<LatencyHistogram>(256);
+    private static final AtomicReferenceArray<LatencyHistogram> BY_IC_TYPE =
+        new AtomicReferenceArray<LatencyHistogram>(256);
+
+    private static volatile boolean enabled = true;
+    private static volatile int currentICType = IC_TYPE_UNKNOWN;
+
+    private FeliCaStats() {}
+
+    /**
+     * 統計の記録の有効/無効をセットします (既定は有効)
+     * @param enable 有効にする場合 trueをセット
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+    /**
+     * 統計を記録するか否かを検査します
+     * @return boolean 有効な場合 trueが戻ります
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    /**
+     * 1回の通信を記録します
+     *
+     * @param request 送信したフレームをセット
+     * @param response 受信したフレームをセット (応答が無い場合は null)
+     * @param outcome 結果をセット
+     * @param nanos 応答時間(ナノ秒)をセット
+     */
+    public static void record(byte[] request, byte[] response, FeliCaStatus outcome, long nanos) {
+        if ( !enabled || request.length < 2 ) return;
+        if ( response != null && response.length >= 18 && response[1] == RESPONSE_POLLING ) {
+            currentICType = response[11] & 0xff; // PMmの IC種別
+        }
+        long micros = nanos / 1000;
+        int received = response != null ? response.length : 0;
+        histogram(BY_COMMAND, request[1] & 0xff).record(micros, request.length, received, outcome);
+        int icType = currentICType;
+        if ( icType != IC_TYPE_UNKNOWN ) {
+            histogram(BY_IC_TYPE, icType).record(micros, request.length, received, outcome);
+        }
+    }
+    /**
+     * 受信したフレームから結果を判定します
+     *
+     * @param response 受信したフレームをセット (応答が無い場合は null)
+     * @return FeliCaStatus OK, STATUS_ERROR, TAG_LOST, INVALID_RESPONSEのいずれかが戻ります
+     */
+    public static FeliCaStatus classify(byte[] response) {
+        if ( response == null ) return FeliCaStatus.TAG_LOST;
+        if ( response.length < 10 ) return FeliCaStatus.INVALID_RESPONSE;
+        switch ( response[1] ) {
+        case RESPONSE_READ_WO_ENCRYPTION:
+        case RESPONSE_WRITE_WO_ENCRYPTION:
+            // ステータスフラグ1を持つレスポンス (暗号化領域のレスポンスはステータスフラグも暗号化されている)
+            if ( response.length < 11 ) return FeliCaStatus.INVALID_RESPONSE;
+            return response[10] == 0 ? FeliCaStatus.OK : FeliCaStatus.STATUS_ERROR;
+        default:
+            return FeliCaStatus.OK;
+        }
+    }
+    /**
+     * コマンドコードのヒストグラムの複製を取得します
+     * @param commandCode コマンドコードをセット
+     * @return LatencyHistogram.Snapshot 複製が戻ります (記録が無い場合は null)
+     */
+    public static LatencyHistogram.Snapshot getCommandSnapshot(byte commandCode) {
+        LatencyHistogram h = BY_COMMAND.get(commandCode & 0xff);
+        return h != null ? h.snapshot() : null;
+    }
+    /**
+     * IC種別のヒストグラムの複製を取得します
+     * @param icType IC種別(PMmの2バイト目)をセット
+     * @return LatencyHistogram.Snapshot 複製が戻ります (記録が無い場合は null)
+     */
+    public static LatencyHistogram.Snapshot getICTypeSnapshot(int icType) {
+        LatencyHistogram h = BY_IC_TYPE.get(icType & 0xff);
+        return h != null ? h.snapshot() : null;
+    }
+    /**
+     * 記録した統計を全て 0に戻します (ヒストグラムは再利用します)
+     */
+    public static void reset() {
+        for ( int i = 0; i < 256; i++ ) {
+            LatencyHistogram h = BY_COMMAND.get(i);
+            if ( h != null ) h.reset();
+            h = BY_IC_TYPE.get(i);
+            if ( h != null ) h.reset();
+        }
+    }
+    /**
+     * 記録のある全てのヒストグラムを1行ずつ追記します
+     * @param sb 追記先をセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    public static StringBuilder render(StringBuilder sb) {
+        for ( int i = 0; i < 256; i++ ) {
+            LatencyHistogram h = BY_COMMAND.get(i);
+            if ( h == null ) continue;
+            String name = FeliCaLib.getCommandName((byte) i);
+            if ( name != null ) {
+                sb.append(name);
+            } else {
+                Util.appendHex(sb.append("Command "), (byte) i);
+            }
+            sb.append(" : ");
+            h.snapshot().renderCompact(sb).append("\n");
+        }
+        for ( int i = 0; i < 256; i++ ) {
+            LatencyHistogram h = BY_IC_TYPE.get(i);
+            if ( h == null ) continue;
+            Util.appendHex(sb.append("IC "), (byte) i).append(" : ");
+            h.snapshot().renderCompact(sb).append("\n");
+        }
+        return sb;
+    }
+    /**
+     * ヒストグラムを取得します (無い場合は生成します)
+     */
+    private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> table, int index) {
+        LatencyHistogram h = table.get(index);
+        if ( h == null ) {
+            table.compareAndSet(index, null, new LatencyHistogram());
+            h = table.get(index);
+        }
+        return h;
+    }
+}
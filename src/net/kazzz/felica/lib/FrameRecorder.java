@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import static net.kazzz.felica.lib.FeliCaLib.COMMAND_POLLING;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.kazzz.felica.FeliCaStatus;
+
+/**
+ * 応答の遅いコマンドと失敗したコマンドのフレームを記録するリングバッファを提供します
+ *
+ * <pre>
+ * FeliCaLib#transceive、FeliCaPollerの通信のうち、応答時間が閾値以上のものと
+ * 結果が OK以外のものについて、送受信したフレーム、応答時間、結果を最新の CAPACITY件だけ保持します。
+ * (カードが無い状態のポーリングの無応答は失敗として扱いません)
+ *
+ * スロットとフレームのバッファは最初に全て確保し、record()は書き込み位置の加算と
+ * 配列のコピーだけを行うため、ロックもオブジェクトの生成もありません。
+ * 各スロットはバージョン番号の compareAndSetで書き込みと読み込みを排他し、
+ * 書き込み中のスロットは snapshot()で読み飛ばします。使用中のスロットに書き込もうとした場合
+ * (CAPACITY件以上の同時記録、または snapshot()の読み込み中)は記録を破棄します
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/25
+ * @since Android API Level 10
+ *
+ */
+
+public final class FrameRecorder {
+    /** 保持する件数 */
+    public static final int CAPACITY = 64;
+    /** 1フレームの最大長 (データ長は 1バイト) */
+    public static final int MAX_FRAME_LENGTH = 255;
+    /** 既定の閾値 (ミリ秒) */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final long WRITING = -1;
+    private static final FeliCaStatus[] OUTCOMES = FeliCaStatus.values();
+
+    private static final AtomicLong next = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicLongArray versions = new AtomicLongArray(CAPACITY);
+    private static final Slot[] slots = new Slot[CAPACITY];
+    static {
+        for ( int i = 0; i < CAPACITY; i++ ) {
+            slots[i] = new Slot();
+            versions.set(i, Long.MIN_VALUE); // 未使用
+        }
+    }
+
+    private static volatile boolean enabled = true;
+    private static volatile long thresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000L;
+
+    private FrameRecorder() {}
+
+    /**
+     * 記録の有効/無効をセットします (既定は有効)
+     * @param enable 有効にする場合 trueをセット
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+    /**
+     * 記録するか否かを検査します
+     * @return boolean 有効な場合 trueが戻ります
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    /**
+     * 記録する応答時間の閾値をセットします
+     * @param millis 閾値(ミリ秒)をセット (0の場合は全ての通信を記録します)
+     */
+    public static void setThresholdMillis(long millis) {
+        if ( millis < 0 ) throw new IllegalArgumentException("threshold must be >= 0");
+        thresholdNanos = millis * 1000000L;
+    }
+    /**
+     * 記録する応答時間の閾値を取得します
+     * @return long 閾値(ミリ秒)が戻ります
+     */
+    public static long getThresholdMillis() {
+        return thresholdNanos / 1000000L;
+    }
+    /**
+     * 1回の通信を検査し、閾値を超えたか失敗した場合に記録します
+     *
+     * @param request 送信したフレームをセット
+     * @param response 受信したフレームをセット (応答が無い場合は null)
+     * @param outcome 結果をセット
+     * @param nanos 応答時間(ナノ秒)をセット
+     */
+    public static void record(byte[] request, byte[] response, FeliCaStatus outcome, long nanos) {
+        if ( !enabled ) return;
+        if ( nanos < thresholdNanos ) {
+            if ( outcome == FeliCaStatus.OK ) return;
+            if ( outcome == FeliCaStatus.TAG_LOST
+                    && request.length >= 2 && request[1] == COMMAND_POLLING ) return; // カードが無い
+        }
+        long seq = next.getAndIncrement();
+        int index = (int) (seq & MASK);
+        long version = versions.get(index);
+        if ( version == WRITING || !versions.compareAndSet(index, version, WRITING) ) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Slot s = slots[index];
+        s.timestamp = System.currentTimeMillis();
+        s.nanos = nanos;
+        s.outcome = outcome.ordinal();
+        s.requestLength = copy(request, s.request);
+        s.responseLength = response != null ? copy(response, s.response) : -1;
+        versions.set(index, seq);
+    }
+    /**
+     * 記録した件数(破棄したものを含む)を取得します
+     * @return long 件数が戻ります
+     */
+    public static long getRecordedCount() {
+        return next.get();
+    }
+    /**
+     * 使用中のスロットに書き込もうとして破棄した件数を取得します
+     * @return long 件数が戻ります
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+    /**
+     * 記録を全て破棄します
+     */
+    public static void clear() {
+        for ( int i = 0; i < CAPACITY; i++ ) {
+            long version = versions.get(i);
+            if ( version != WRITING ) versions.compareAndSet(i, version, Long.MIN_VALUE);
+        }
+    }
+    /**
+     * 保持している記録の複製を古い順に取得します
+     * @return Entry[] 記録の配列が戻ります (記録が無い場合は空の配列)
+     */
+    public static Entry[] snapshot() {
+        Entry[] entries = new Entry[CAPACITY];
+        int n = 0;
+        for ( int i = 0; i < CAPACITY; i++ ) {
+            long version = versions.get(i);
+            if ( version < 0 ) continue; // 未使用または書き込み中
+            // 読み込み中はスロットを確保しておく (その間の record()は破棄される)
+            if ( !versions.compareAndSet(i, version, WRITING) ) continue;
+            Slot s = slots[i];
+            try {
+                byte[] request = Arrays.copyOf(s.request, s.requestLength);
+                byte[] response = s.responseLength >= 0 
+                    ? Arrays.copyOf(s.response, s.responseLength) : null;
+                entries[n++] = new Entry(version, s.timestamp, s.nanos, OUTCOMES[s.outcome]
+                        , request, response);
+            } finally {
+                versions.set(i, version);
+            }
+        }
+        entries = Arrays.copyOf(entries, n);
+        Arrays.sort(entries);
+        return entries;
+    }
+    /**
+     * 保持している記録を古い順に1件1行で追記します
+     * @param sb 追記先をセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    public static StringBuilder dump(StringBuilder sb) {
+        for ( Entry e : snapshot() ) {
+            e.render(sb).append("\n");
+        }
+        return sb;
+    }
+    /**
+     * フレームをスロットのバッファにコピーします
+     * @return int コピーした長さが戻ります
+     */
+    private static int copy(byte[] src, byte[] dst) {
+        int length = Math.min(src.length, dst.length);
+        System.arraycopy(src, 0, dst, 0, length);
+        return length;
+    }
+
+    /**
+     * 記録を書き込む領域 (最初に確保して使い回します)
+     */
+    private static final class Slot {
+        final byte[] request = new byte[MAX_FRAME_LENGTH];
+        final byte[] response = new byte[MAX_FRAME_LENGTH];
+        int requestLength;
+        int responseLength;
+        long timestamp;
+        long nanos;
+        int outcome;
+    }
+
+    /**
+     * 1回の通信の記録を保持するクラスを提供します
+     */
+    public static final class Entry implements Comparable<Entry> {
+        private final long sequence;
+        private final long timestamp;
+        private final long nanos;
+        private final FeliCaStatus outcome;
+        private final byte[] request;
+        private final byte[] response;
+
+        Entry(long sequence, long timestamp, long nanos, FeliCaStatus outcome
+                , byte[] request, byte[] response) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.nanos = nanos;
+            this.outcome = outcome;
+            this.request = request;
+            this.response = response;
+        }
+        /**
+         * 記録の通し番号を取得します
+         * @return long 通し番号が戻ります
+         */
+        public long getSequence() {
+            return this.sequence;
+        }
+        /**
+         * 記録した時刻を取得します
+         * @return long System#currentTimeMillisの値が戻ります
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+        /**
+         * 応答時間を取得します
+         * @return long 応答時間(マイクロ秒)が戻ります
+         */
+        public long getMicros() {
+            return this.nanos / 1000;
+        }
+        /**
+         * 結果を取得します
+         * @return FeliCaStatus 結果が戻ります
+         */
+        public FeliCaStatus getOutcome() {
+            return this.outcome;
+        }
+        /**
+         * 送信したフレームを取得します
+         * @return byte[] フレームが戻ります
+         */
+        public byte[] getRequest() {
+            return this.request.clone();
+        }
+        /**
+         * 受信したフレームを取得します
+         * @return byte[] フレームが戻ります (応答が無い場合は null)
+         */
+        public byte[] getResponse() {
+            return this.response != null ? this.response.clone() : null;
+        }
+        /**
+         * 1行の文字列表現を追記します
+         * @param sb 追記先をセット
+         * @return StringBuilder 追記先が戻ります
+         */
+        public StringBuilder render(StringBuilder sb) {
+            sb.append('#').append(this.sequence)
+              .append(" t=").append(this.timestamp)
+              .append(' ').append(this.getMicros()).append("us ")
+              .append(this.outcome).append(" > ");
+            Util.appendHex(sb, this.request, 0, this.request.length).append(" < ");
+            if ( this.response != null ) {
+                Util.appendHex(sb, this.response, 0, this.response.length);
+            } else {
+                sb.append("(none)");
+            }
+            return sb;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo(Entry another) {
+            return this.sequence < another.sequence ? -1 : (this.sequence == another.sequence ? 0 : 1);
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return this.render(new StringBuilder("FrameRecorder.Entry ")).toString();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import java.io.IOException;
+
+import android.nfc.Tag;
+
+/**
+ * コマンドの送受信に割り込むインタセプタを定義します
+ *
+ * <pre>
+ * FeliCaLib#addInterceptorで全てのタグに、FeliCaTag#addInterceptorでタグ毎に登録します。
+ * beforeSendは全体、タグ毎の順に、afterReceiveはその逆順に呼ばれます。
+ * フレームを差し替えたり例外をスローすることで、障害を模擬することもできます。
+ *
+ * インタセプタはコマンドを実行するスレッドから呼ばれます。
+ * 登録されていない場合は呼び出しのコストはかかりません
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/24
+ * @since Android API Level 10
+ *
+ */
+
+public interface ICommandInterceptor {
+    /**
+     * 送信の直前に呼ばれます
+     *
+     * @param tag 送信先のタグが渡されます
+     * @param request 送信するフレームが渡されます
+     * @return byte[] 実際に送信するフレームを戻します (通常は requestをそのまま戻します)
+     * @throws IOException 送信を中止する場合にスローします (TagLostExceptionの場合は Tag Lostとして扱われます)
+     */
+    byte[] beforeSend(Tag tag, byte[] request) throws IOException;
+    /**
+     * 受信の直後に呼ばれます
+     *
+     * @param tag 送信先のタグが渡されます
+     * @param request 送信したフレームが渡されます
+     * @param response 受信したフレームが渡されます (Tag Lostの場合は null)
+     * @param nanos 応答時間(ナノ秒)が渡されます (beforeSendで Tag Lostを模擬した場合は 0)
+     * @return byte[] 呼び出し元に戻すフレームを戻します (通常は responseをそのまま戻します)
+     */
+    byte[] afterReceive(Tag tag, byte[] request, byte[] response, long nanos);
+    /**
+     * 送受信に失敗した時に呼ばれます
+     *
+     * @param tag 送信先のタグが渡されます
+     * @param request 送信しようとしたフレームが渡されます
+     * @param e 発生した例外が渡されます
+     * @param nanos 失敗までの時間(ナノ秒)が渡されます (送信前に失敗した場合は 0)
+     */
+    void onError(Tag tag, byte[] request, IOException e, long nanos);
+
+    /**
+     * 何もしないインタセプタを提供します (必要なメソッドだけをオーバーライドして使用します)
+     */
+    public static class Adapter implements ICommandInterceptor {
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.lib.ICommandInterceptor#beforeSend(android.nfc.Tag, byte[])
+         */
+        @Override
+        public byte[] beforeSend(Tag tag, byte[] request) throws IOException {
+            return request;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.lib.ICommandInterceptor#afterReceive(android.nfc.Tag, byte[], byte[], long)
+         */
+        @Override
+        public byte[] afterReceive(Tag tag, byte[] request, byte[] response, long nanos) {
+            return response;
+        }
+        /* (non-Javadoc)
+         * @see net.kazzz.felica.lib.ICommandInterceptor#onError(android.nfc.Tag, byte[], java.io.IOException, long)
+         */
+        @Override
+        public void onError(Tag tag, byte[] request, IOException e, long nanos) {
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.kazzz.felica.FeliCaStatus;
+
+/**
+ * ロックを使用しない固定サイズの応答時間ヒストグラムを提供します
+ *
+ * <pre>
+ * 応答時間(マイクロ秒)は 16未満を 1刻み、それ以上を 2のべき乗毎に 8分割したバケットで数えます。
+ * (相対誤差は最大 12.5%、上限は約 67秒です)
+ * 件数の他に、送受信したバイト数の合計と、結果(FeliCaStatus)毎の件数を数えます。
+ *
+ * record()は AtomicLongArrayの加算だけで、オブジェクトを生成しません。
+ * snapshot()は集計中の値を1回ずつ読み取るため、並行して記録されている場合は
+ * 各値の間に僅かな不整合が生じることがあります
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/23
+ * @since Android API Level 10
+ *
+ */
+
+public final class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 26;
+    /** バケット数 */
+    static final int BUCKETS = LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private static final FeliCaStatus[] OUTCOMES = FeliCaStatus.values();
+
+    // 合計値の位置
+    private static final int COUNT = 0;
+    private static final int TOTAL_MICROS = 1;
+    private static final int MAX_MICROS = 2;
+    private static final int BYTES_SENT = 3;
+    private static final int BYTES_RECEIVED = 4;
+    private static final int TOTALS = 5;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(TOTALS);
+    private final AtomicLongArray outcomes = new AtomicLongArray(OUTCOMES.length);
+
+    /**
+     * 1回の通信を記録します
+     *
+     * @param micros 応答時間(マイクロ秒)をセット
+     * @param sent 送信したバイト数をセット
+     * @param received 受信したバイト数をセット (応答が無い場合は 0)
+     * @param outcome 結果をセット
+     */
+    public void record(long micros, int sent, int received, FeliCaStatus outcome) {
+        if ( micros < 0 ) micros = 0;
+        this.buckets.incrementAndGet(bucketOf(micros));
+        this.totals.incrementAndGet(COUNT);
+        this.totals.addAndGet(TOTAL_MICROS, micros);
+        this.totals.addAndGet(BYTES_SENT, sent);
+        this.totals.addAndGet(BYTES_RECEIVED, received);
+        this.outcomes.incrementAndGet(outcome.ordinal());
+        long max;
+        while ( micros > (max = this.totals.get(MAX_MICROS)) ) {
+            if ( this.totals.compareAndSet(MAX_MICROS, max, micros) ) break;
+        }
+    }
+    /**
+     * 記録した値を全て 0に戻します
+     */
+    public void reset() {
+        for ( int i = 0; i < BUCKETS; i++ ) this.buckets.set(i, 0);
+        for ( int i = 0; i < TOTALS; i++ ) this.totals.set(i, 0);
+        for ( int i = 0; i < OUTCOMES.length; i++ ) this.outcomes.set(i, 0);
+    }
+    /**
+     * 現在の値の複製を取得します
+     * @return Snapshot 複製が戻ります
+     */
+    public Snapshot snapshot() {
+        long[] b = new long[BUCKETS];
+        long n = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            b[i] = this.buckets.get(i);
+            n += b[i];
+        }
+        long[] t = new long[TOTALS];
+        for ( int i = 0; i < TOTALS; i++ ) t[i] = this.totals.get(i);
+        t[COUNT] = n; // パーセンタイルとの整合を優先する
+        long[] o = new long[OUTCOMES.length];
+        for ( int i = 0; i < OUTCOMES.length; i++ ) o[i] = this.outcomes.get(i);
+        return new Snapshot(b, t, o);
+    }
+
+    /**
+     * ヒストグラムのある時点の値を保持するクラスを提供します
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long[] totals;
+        private final long[] outcomes;
+
+        Snapshot(long[] buckets, long[] totals, long[] outcomes) {
+            this.buckets = buckets;
+            this.totals = totals;
+            this.outcomes = outcomes;
+        }
+        /**
+         * 記録した件数を取得します
+         * @return long 件数が戻ります
+         */
+        public long getCount() {
+            return this.totals[COUNT];
+        }
+        /**
+         * パーセンタイルを取得します
+         *
+         * @param percent パーセント(0〜100)をセット
+         * @return long 応答時間(マイクロ秒、バケットの上限値)が戻ります (記録が無い場合は 0)
+         */
+        public long getPercentile(double percent) {
+            long n = this.totals[COUNT];
+            if ( n == 0 ) return 0;
+            long rank = (long) Math.ceil(n * Math.max(0.0, Math.min(100.0, percent)) / 100.0);
+            if ( rank < 1 ) rank = 1;
+            long seen = 0;
+            for ( int i = 0; i < this.buckets.length; i++ ) {
+                seen += this.buckets[i];
+                if ( seen >= rank ) return Math.min(upperBoundOf(i), this.getMax());
+            }
+            return this.getMax();
+        }
+        /**
+         * 50パーセンタイル(中央値)を取得します
+         * @return long 応答時間(マイクロ秒)が戻ります
+         */
+        public long getP50() {
+            return this.getPercentile(50);
+        }
+        /**
+         * 99パーセンタイルを取得します
+         * @return long 応答時間(マイクロ秒)が戻ります
+         */
+        public long getP99() {
+            return this.getPercentile(99);
+        }
+        /**
+         * 最大の応答時間を取得します
+         * @return long 応答時間(マイクロ秒)が戻ります
+         */
+        public long getMax() {
+            return this.totals[MAX_MICROS];
+        }
+        /**
+         * 平均の応答時間を取得します
+         * @return long 応答時間(マイクロ秒)が戻ります
+         */
+        public long getMean() {
+            return this.totals[COUNT] == 0 ? 0 : this.totals[TOTAL_MICROS] / this.totals[COUNT];
+        }
+        /**
+         * 送信したバイト数の合計を取得します
+         * @return long バイト数が戻ります
+         */
+        public long getBytesSent() {
+            return this.totals[BYTES_SENT];
+        }
+        /**
+         * 受信したバイト数の合計を取得します
+         * @return long バイト数が戻ります
+         */
+        public long getBytesReceived() {
+            return this.totals[BYTES_RECEIVED];
+        }
+        /**
+         * 結果毎の件数を取得します
+         * @param outcome 結果をセット
+         * @return long 件数が戻ります
+         */
+        public long getCount(FeliCaStatus outcome) {
+            return this.outcomes[outcome.ordinal()];
+        }
+        /**
+         * 1行の文字列表現を追記します
+         * @param sb 追記先をセット
+         * @return StringBuilder 追記先が戻ります
+         */
+        public StringBuilder renderCompact(StringBuilder sb) {
+            sb.append("n=").append(this.getCount())
+              .append(" p50=").append(this.getP50()).append("us")
+              .append(" p99=").append(this.getP99()).append("us")
+              .append(" max=").append(this.getMax()).append("us")
+              .append(" mean=").append(this.getMean()).append("us")
+              .append(" tx=").append(this.getBytesSent())
+              .append(" rx=").append(this.getBytesReceived());
+            for ( int i = 0; i < OUTCOMES.length; i++ ) {
+                if ( this.outcomes[i] != 0 ) {
+                    sb.append(' ').append(OUTCOMES[i]).append('=').append(this.outcomes[i]);
+                }
+            }
+            return sb;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return this.renderCompact(new StringBuilder("LatencyHistogram ")).toString();
+        }
+    }
+
+    /**
+     * 応答時間のバケットの位置を求めます
+     */
+    static int bucketOf(long micros) {
+        if ( micros < LINEAR ) return (int) micros;
+        int e = 63 - Long.numberOfLeadingZeros(micros);
+        if ( e > MAX_EXPONENT ) return BUCKETS - 1;
+        int sub = (int) (micros >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (e - 4) * SUB_BUCKETS + sub;
+    }
+    /**
+     * バケットの上限値を求めます
+     */
+    static long upperBoundOf(int bucket) {
+        if ( bucket < LINEAR ) return bucket;
+        int e = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        long width = 1L << (e - SUB_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+}
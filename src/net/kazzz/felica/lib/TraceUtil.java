@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.lib;
+
+import java.io.IOException;
+
+import net.kazzz.felica.IFeliCaRenderable;
+import android.util.Log;
+
+/**
+ * コマンド/レスポンスのトレースログ出力のためのユーティリティを提供します
+ *
+ * <pre>
+ * ログレベルが無効な場合は文字列を一切生成しません。
+ * 有効な場合もスレッド毎に再利用する StringBuilderに書き出します
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/19
+ * @since Android API Level 9
+ *
+ */
+
+public final class TraceUtil {
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private TraceUtil() {}
+
+    /**
+     * ログレベルが有効な場合に限り、1行形式でデバッグログを出力します
+     *
+     * @param tag ログのタグをセット
+     * @param message メッセージの接頭辞をセット
+     * @param target 出力する対象をセット
+     */
+    public static void d(String tag, String message, IFeliCaRenderable target) {
+        if ( !Log.isLoggable(tag, Log.DEBUG) ) return;
+        StringBuilder sb = buffer();
+        sb.append(message);
+        render(sb, target, true);
+        Log.d(tag, sb.toString());
+    }
+    /**
+     * ログレベルが有効な場合に限り、複数行形式で詳細ログを出力します
+     *
+     * @param tag ログのタグをセット
+     * @param message メッセージの接頭辞をセット
+     * @param target 出力する対象をセット
+     */
+    public static void v(String tag, String message, IFeliCaRenderable target) {
+        if ( !Log.isLoggable(tag, Log.VERBOSE) ) return;
+        StringBuilder sb = buffer();
+        sb.append(message);
+        render(sb, target, false);
+        Log.v(tag, sb.toString());
+    }
+    /**
+     * 文字列化を遅延するログ引数を生成します
+     *
+     * <pre>
+     * 戻り値の toString()が呼ばれた時点で初めて1行形式の文字列を生成します。
+     * ロガー側でフィルタされた場合は文字列を生成しません
+     * </pre>
+     *
+     * @param target 対象をセット
+     * @return Object toString()で1行形式の文字列表現を戻すオブジェクトが戻ります
+     */
+    public static Object lazy(final IFeliCaRenderable target) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return render(new StringBuilder(128), target, true).toString();
+            }
+        };
+    }
+    /**
+     * Appendableに文字列表現を書き出します
+     *
+     * @param out 書き出し先をセット
+     * @param target 対象をセット
+     * @param compact 1行形式の場合 trueをセット
+     * @throws IOException 書き出しに失敗した場合にスローされます
+     */
+    public static void appendTo(Appendable out, IFeliCaRenderable target, boolean compact) throws IOException {
+        if ( out instanceof StringBuilder ) {
+            render((StringBuilder) out, target, compact);
+            return;
+        }
+        out.append(render(buffer(), target, compact));
+    }
+    /**
+     * StringBuilderに文字列表現を書き出します
+     *
+     * @param sb 書き出し先をセット
+     * @param target 対象をセット (nullの場合は "null")
+     * @param compact 1行形式の場合 trueをセット
+     * @return StringBuilder 書き出し先が戻ります
+     */
+    public static StringBuilder render(StringBuilder sb, IFeliCaRenderable target, boolean compact) {
+        if ( target == null ) return sb.append("null");
+        return compact ? target.renderCompact(sb) : target.render(sb);
+    }
+    /**
+     * スレッド毎に再利用するバッファを空にして取得します
+     */
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        if ( sb.capacity() > MAX_RETAINED_CAPACITY ) {
+            sb = new StringBuilder(256); // 巨大なバッファは保持し続けない
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+}
@@ -11,6 +11,7 @@
  */
 package net.kazzz.felica.lib;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -25,6 +26,26 @@ import java.util.Arrays;
 
 public final class Util {
     private Util() {}
+    // 16進数/2進数の変換テーブル
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+    private static final char[] BIN_DIGITS = new char[256 * 8];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for ( int i = 0; i < 10; i++ ) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for ( int i = 0; i < 6; i++ ) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+        for ( int i = 0; i < 256; i++ ) {
+            for ( int j = 0; j < 8; j++ ) {
+                BIN_DIGITS[i * 8 + j] = ((i >> (7 - j)) & 1) != 0 ? '1' : '0';
+            }
+        }
+    }
+
     /**
      * intをバイト配列にします。
      * 
@@ -33,10 +54,7 @@ public final class Util {
      */
     public static byte[] toBytes(int a) {
         byte[] bs = new byte[4];
-        bs[3] = (byte) (0x000000ff & (a));
-        bs[2] = (byte) (0x000000ff & (a >>> 8));
-        bs[1] = (byte) (0x000000ff & (a >>> 16));
-        bs[0] = (byte) (0x000000ff & (a >>> 24));
+        putU32(bs, 0, a);
         return bs;
     }
 
@@ -50,26 +68,186 @@ public final class Util {
         if ( b == null || b.length == 0 )
             throw new IllegalArgumentException();
         
-        if ( b.length == 1 ) 
-            return b[0] & 0xFF;
-        if ( b.length == 2 ) {
-            int i = 0;
-            i |= b[0] & 0xFF;
-            i <<= 8;
-            i |= b[1] & 0xFF;
-            return i;
-        }
-        if ( b.length == 3 ) {
-            int i = 0;
-            i |= b[0] & 0xFF;
-            i <<= 8;
-            i |= b[1] & 0xFF;
-            i <<= 8;
-            i |= b[2] & 0xFF;
-            return i;
-        }
-            
-        return ByteBuffer.wrap(b).getInt();
+        switch ( b.length ) {
+        case 1: return getU8(b, 0);
+        case 2: return getU16BE(b, 0);
+        case 3: return getU24(b, 0);
+        default: return getU32(b, 0);
+        }
+    }
+    /**
+     * バイト列の指定位置から符号なし8bit値を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 0～255の値が戻ります
+     */
+    public static int getU8(byte[] buf, int offset) {
+        return buf[offset] & 0xff;
+    }
+    /**
+     * バイト列の指定位置から符号なし16bit値(little endian)を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 0～65535の値が戻ります
+     */
+    public static int getU16LE(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8;
+    }
+    /**
+     * バイト列の指定位置から符号なし16bit値(big endian)を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 0～65535の値が戻ります
+     */
+    public static int getU16BE(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) << 8 | (buf[offset + 1] & 0xff);
+    }
+    /**
+     * バイト列の指定位置から符号なし24bit値(big endian)を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 24bitの値が戻ります
+     */
+    public static int getU24(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) << 16 | (buf[offset + 1] & 0xff) << 8 
+            | (buf[offset + 2] & 0xff);
+    }
+    /**
+     * バイト列の指定位置から符号なし24bit値(little endian)を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 24bitの値が戻ります
+     */
+    public static int getU24LE(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8 
+            | (buf[offset + 2] & 0xff) << 16;
+    }
+    /**
+     * バイト列の指定位置から32bit値(big endian)を取得します
+     * 
+     * <pre>
+     * 符号なしの値が必要な場合は (getU32(buf, offset) &amp; 0xffffffffL)で変換してください
+     * </pre>
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 32bitの値が戻ります
+     */
+    public static int getU32(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) << 24 | (buf[offset + 1] & 0xff) << 16 
+            | (buf[offset + 2] & 0xff) << 8 | (buf[offset + 3] & 0xff);
+    }
+    /**
+     * バイト列の指定位置から32bit値(little endian)を取得します
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @return int 32bitの値が戻ります
+     */
+    public static int getU32LE(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8 
+            | (buf[offset + 2] & 0xff) << 16 | (buf[offset + 3] & 0xff) << 24;
+    }
+    /**
+     * バイト列の指定位置に8bit値を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU8(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        return offset + 1;
+    }
+    /**
+     * バイト列の指定位置に16bit値(little endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU16LE(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        return offset + 2;
+    }
+    /**
+     * バイト列の指定位置に16bit値(big endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU16BE(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 8);
+        buf[offset + 1] = (byte) value;
+        return offset + 2;
+    }
+    /**
+     * バイト列の指定位置に24bit値(big endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU24(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 16);
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) value;
+        return offset + 3;
+    }
+    /**
+     * バイト列の指定位置に24bit値(little endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU24LE(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        return offset + 3;
+    }
+    /**
+     * バイト列の指定位置に32bit値(big endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU32(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+    /**
+     * バイト列の指定位置に32bit値(little endian)を書き込みます
+     * 
+     * @param buf バイト列をセット
+     * @param offset 位置をセット
+     * @param value 値をセット
+     * @return int 書き込んだ次の位置が戻ります
+     */
+    public static int putU32LE(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
     }
     /**
      * byte配列を16進数文字列で戻します
@@ -78,28 +256,135 @@ public final class Util {
      * @return 文字列が戻ります
      */
     public static String getHexString(byte data) {
-        return getHexString(new byte[]{data});
+        int v = data & 0xff;
+        return new String(new char[]{ HEX_DIGITS[v >>> 4], HEX_DIGITS[v & 0x0f] });
     }
     /**
      * byte配列を16進数文字列で戻します
      * 
      * @param byteArray byte配列をセット 
+     * @param split 開始位置と長さをセット (省略した場合は配列全体)
      * @return 文字列が戻ります
      */
     public static String getHexString(byte[] byteArray, int... split) {
-        StringBuilder builder = new StringBuilder();
-        byte[] target = null;
-        if ( split.length <= 1 ) {
-            target = byteArray;
-        } else  if ( split.length < 2 ) {
-            target = Arrays.copyOfRange(byteArray, 0, 0 + split[0]);
-        } else {
-            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        int offset = 0;
+        int length = byteArray.length;
+        if ( split.length >= 2 ) {
+            offset = split[0];
+            length = split[1];
         }
-        for (byte b : target) {
-            builder.append(String.format("%02x", b).toUpperCase());
+        char[] buf = new char[length * 2];
+        toHexChars(byteArray, offset, length, buf, 0);
+        return new String(buf);
+    }
+    /**
+     * byte配列を16進数文字として文字配列に書き出します
+     * 
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @param dst 書き出し先の文字配列をセット (length * 2文字必要です)
+     * @param dstOffset 書き出し先の開始位置をセット
+     * @return int 書き出した文字数が戻ります
+     */
+    public static int toHexChars(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int p = dstOffset;
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            int v = src[i] & 0xff;
+            dst[p++] = HEX_DIGITS[v >>> 4];
+            dst[p++] = HEX_DIGITS[v & 0x0f];
+        }
+        return p - dstOffset;
+    }
+    /**
+     * byte配列を16進数文字列で追記します
+     * 
+     * @param sb 追記先をセット
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte[] src, int offset, int length) {
+        sb.ensureCapacity(sb.length() + length * 2);
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            int v = src[i] & 0xff;
+            sb.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0f]);
+        }
+        return sb;
+    }
+    /**
+     * byteを16進数文字列で追記します
+     * 
+     * @param sb 追記先をセット
+     * @param data データをセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte data) {
+        int v = data & 0xff;
+        return sb.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0f]);
+    }
+    /**
+     * byte配列を16進数文字列で追記します
+     * 
+     * @param out 追記先をセット
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @throws IOException 追記先への書き出しに失敗した場合にスローされます
+     */
+    public static void appendHex(Appendable out, byte[] src, int offset, int length) throws IOException {
+        if ( out instanceof StringBuilder ) {
+            appendHex((StringBuilder) out, src, offset, length);
+            return;
+        }
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            int v = src[i] & 0xff;
+            out.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0f]);
+        }
+    }
+    /**
+     * 16進数文字列をbyte配列に変換します
+     * 
+     * @param hex 16進数文字列をセット (大文字小文字は問いません)
+     * @return byte[] 変換したbyte配列が戻ります
+     * @throws IllegalArgumentException 16進数文字列として不正な場合にスローされます
+     */
+    public static byte[] fromHexString(CharSequence hex) {
+        byte[] result = new byte[checkHexLength(hex)];
+        fromHexString(hex, result, 0);
+        return result;
+    }
+    /**
+     * 16進数文字列をbyte配列に変換して書き出します
+     * 
+     * @param hex 16進数文字列をセット
+     * @param dst 書き出し先のbyte配列をセット
+     * @param dstOffset 書き出し先の開始位置をセット
+     * @return int 書き出したバイト数が戻ります
+     * @throws IllegalArgumentException 16進数文字列として不正な場合にスローされます
+     */
+    public static int fromHexString(CharSequence hex, byte[] dst, int dstOffset) {
+        int length = checkHexLength(hex);
+        for ( int i = 0, p = 0; i < length; i++, p += 2 ) {
+            dst[dstOffset + i] = (byte) (hexValue(hex, p) << 4 | hexValue(hex, p + 1));
         }
-        return builder.toString();
+        return length;
+    }
+    /**
+     * 16進数文字列をbyte配列に変換してバッファに書き出します
+     * 
+     * @param hex 16進数文字列をセット
+     * @param dst 書き出し先のバッファをセット (現在位置から書き出します)
+     * @return int 書き出したバイト数が戻ります
+     * @throws IllegalArgumentException 16進数文字列として不正な場合にスローされます
+     */
+    public static int fromHexString(CharSequence hex, ByteBuffer dst) {
+        int length = checkHexLength(hex);
+        for ( int i = 0, p = 0; i < length; i++, p += 2 ) {
+            dst.put((byte) (hexValue(hex, p) << 4 | hexValue(hex, p + 1)));
+        }
+        return length;
     }
     /**
      * byte配列を2進数文字列で戻します
@@ -108,29 +393,123 @@ public final class Util {
      * @return 文字列が戻ります
      */
     public static String getBinString(byte data) {
-        return getBinString(new byte[]{data});
+        return new String(BIN_DIGITS, (data & 0xff) * 8, 8);
     }   
     /**
      * byte配列を2進数文字列で戻します
      * 
      * @param byteArray byte配列をセット 
+     * @param split 開始位置と長さをセット (省略した場合は配列全体)
      * @return 文字列が戻ります
      */
     public static String getBinString(byte[] byteArray, int... split) {
-        StringBuilder builder = new StringBuilder();
-        byte[] target = null;
-        if ( split.length <= 1 ) {
-            target = byteArray;
-        } else  if ( split.length < 2 ) {
-            target = Arrays.copyOfRange(byteArray, 0, 0 + split[0]);
-        } else {
-            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        int offset = 0;
+        int length = byteArray.length;
+        if ( split.length >= 2 ) {
+            offset = split[0];
+            length = split[1];
         }
-        
-        for (byte b : target) {
-            builder.append(String.format("%8s"
-                    , Integer.toBinaryString(b & 0xFF)).replaceAll(" ", "0"));
+        char[] buf = new char[length * 8];
+        toBinChars(byteArray, offset, length, buf, 0);
+        return new String(buf);
+    }
+    /**
+     * byte配列を2進数文字として文字配列に書き出します
+     * 
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @param dst 書き出し先の文字配列をセット (length * 8文字必要です)
+     * @param dstOffset 書き出し先の開始位置をセット
+     * @return int 書き出した文字数が戻ります
+     */
+    public static int toBinChars(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int p = dstOffset;
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            System.arraycopy(BIN_DIGITS, (src[i] & 0xff) * 8, dst, p, 8);
+            p += 8;
+        }
+        return p - dstOffset;
+    }
+    /**
+     * byte配列を2進数文字列で追記します
+     * 
+     * @param sb 追記先をセット
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @return StringBuilder 追記先が戻ります
+     */
+    public static StringBuilder appendBin(StringBuilder sb, byte[] src, int offset, int length) {
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            sb.append(BIN_DIGITS, (src[i] & 0xff) * 8, 8);
+        }
+        return sb;
+    }
+    /**
+     * byte配列を2進数文字列で追記します
+     * 
+     * @param out 追記先をセット
+     * @param src byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length 長さをセット
+     * @throws IOException 追記先への書き出しに失敗した場合にスローされます
+     */
+    public static void appendBin(Appendable out, byte[] src, int offset, int length) throws IOException {
+        if ( out instanceof StringBuilder ) {
+            appendBin((StringBuilder) out, src, offset, length);
+            return;
+        }
+        for ( int i = offset, end = offset + length; i < end; i++ ) {
+            int base = (src[i] & 0xff) * 8;
+            for ( int j = 0; j < 8; j++ ) {
+                out.append(BIN_DIGITS[base + j]);
+            }
+        }
+    }
+    /**
+     * 2進数文字列をbyte配列に変換します
+     * 
+     * @param bin 2進数文字列をセット (8の倍数の長さで '0'と '1'のみ)
+     * @return byte[] 変換したbyte配列が戻ります
+     * @throws IllegalArgumentException 2進数文字列として不正な場合にスローされます
+     */
+    public static byte[] fromBinString(CharSequence bin) {
+        if ( bin.length() % 8 != 0 ) {
+            throw new IllegalArgumentException("binary string length must be a multiple of 8");
+        }
+        byte[] result = new byte[bin.length() / 8];
+        for ( int i = 0, p = 0; i < result.length; i++ ) {
+            int v = 0;
+            for ( int j = 0; j < 8; j++, p++ ) {
+                char c = bin.charAt(p);
+                if ( c != '0' && c != '1' ) {
+                    throw new IllegalArgumentException("invalid binary character '" + c + "' at " + p);
+                }
+                v = v << 1 | (c - '0');
+            }
+            result[i] = (byte) v;
+        }
+        return result;
+    }
+    /**
+     * 16進数文字列の長さを検査してバイト数を取得します
+     */
+    private static int checkHexLength(CharSequence hex) {
+        if ( (hex.length() & 1) != 0 ) {
+            throw new IllegalArgumentException("hex string length must be even");
+        }
+        return hex.length() / 2;
+    }
+    /**
+     * 16進数文字の値を取得します
+     */
+    private static int hexValue(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int v = c < 128 ? HEX_VALUES[c] : -1;
+        if ( v < 0 ) {
+            throw new IllegalArgumentException("invalid hex character '" + c + "' at " + index);
         }
-        return builder.toString();
+        return v;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.suica;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.Util;
+
+/**
+ * IDm毎に読み込み済みの履歴連番(ウォーターマーク)を保持するストアを提供します
+ *
+ * <pre>
+ * ファイルに保存しておけば、アプリケーションの再起動後も差分読み込みを継続できます
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/16
+ * @since Android API Level 9
+ *
+ */
+
+public class SequenceWatermarkStore {
+    /** ウォーターマークが無いことを示す値 */
+    public static final int NONE = -1;
+
+    protected final Map<Long, Integer> watermarks = new HashMap<Long, Integer>();
+    protected final File file;
+
+    /**
+     * コンストラクタ (メモリ上のみで保持します)
+     */
+    public SequenceWatermarkStore() {
+        this.file = null;
+    }
+    /**
+     * コンストラクタ
+     *
+     * @param file 保存先のファイルをセット (存在する場合は読み込みます)
+     * @throws IOException
+     */
+    public SequenceWatermarkStore(File file) throws IOException {
+        this.file = file;
+        if ( file.exists() ) {
+            this.load();
+        }
+    }
+    /**
+     * IDmに対するウォーターマークを取得します
+     *
+     * @param idm カードのIDmをセット
+     * @return int 最後に読み込んだ連番が戻ります (無い場合は NONE)
+     */
+    public synchronized int get(IDm idm) {
+        Integer w = this.watermarks.get(toKey(idm));
+        return w != null ? w : NONE;
+    }
+    /**
+     * IDmに対するウォーターマークを更新します
+     *
+     * @param idm カードのIDmをセット
+     * @param sequence 最後に読み込んだ連番をセット
+     */
+    public synchronized void put(IDm idm, int sequence) {
+        this.watermarks.put(toKey(idm), sequence);
+    }
+    /**
+     * IDmに対するウォーターマークを削除します
+     * @param idm カードのIDmをセット
+     */
+    public synchronized void remove(IDm idm) {
+        this.watermarks.remove(toKey(idm));
+    }
+    /**
+     * ファイルに保存します (ファイルを指定していない場合は何もしません)
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if ( this.file == null ) return;
+        File temp = new File(this.file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            for ( Map.Entry<Long, Integer> e : this.watermarks.entrySet() ) {
+                out.writeLong(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if ( !temp.renameTo(this.file) ) {
+            // renameToで上書きできないプラットフォーム向け
+            if ( !this.file.delete() || !temp.renameTo(this.file) ) {
+                throw new IOException("can't save watermark file : " + this.file);
+            }
+        }
+    }
+    /**
+     * ファイルから読み込みます
+     * @throws IOException
+     */
+    protected void load() throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(this.file)));
+        try {
+            while ( true ) {
+                long key;
+                try {
+                    key = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                this.watermarks.put(key, in.readInt());
+            }
+        } finally {
+            in.close();
+        }
+    }
+    /**
+     * IDmをキーに変換します
+     */
+    static long toKey(IDm idm) {
+        byte[] b = idm.getBytes();
+        return (long) Util.getU32(b, 0) << 32 | (Util.getU32(b, 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.suica;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 駅コード(地域, 線区, 駅順)から駅名を引くための索引を提供します
+ *
+ * <pre>
+ * 駅コード表をソート済みのバイナリファイルに変換し、メモリマップして二分探索します。
+ * 文字列は名前を要求された時点で初めて生成するので、ヒープをほとんど消費しません
+ *
+ * ファイル形式 (big endian)
+ *  int    magic ('STCD')
+ *  int    version
+ *  int    count
+ *  int[]  key (count個, 昇順)      key = 地域 << 16 | 線区 << 8 | 駅順
+ *  int[]  文字列オフセット (count * 3 + 1個, 事業者名/線区名/駅名の順)
+ *  byte[] 文字列プール (UTF-8)
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/15
+ * @since Android API Level 9
+ *
+ */
+
+public final class StationCodeIndex {
+    static final int MAGIC = 0x53544344; // 'STCD'
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+
+    /** 事業者名 */
+    public static final int FIELD_COMPANY = 0;
+    /** 線区名 */
+    public static final int FIELD_LINE = 1;
+    /** 駅名 */
+    public static final int FIELD_STATION = 2;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int keyBase;
+    private final int offsetBase;
+    private final int poolBase;
+
+    /**
+     * コンストラクタ
+     * @param buffer 索引ファイルの内容をセット
+     * @throws IOException 索引ファイルの形式が不正な場合にスローされます
+     */
+    public StationCodeIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        try {
+            if ( buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ) {
+                throw new IOException("not a station code index");
+            }
+            this.count = buffer.getInt(8);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("station code index is truncated");
+        } catch (BufferUnderflowException e) {
+            throw new IOException("station code index is truncated");
+        }
+        this.keyBase = HEADER_SIZE;
+        this.offsetBase = this.keyBase + this.count * 4;
+        this.poolBase = this.offsetBase + (this.count * 3 + 1) * 4;
+        if ( this.poolBase > buffer.limit() ) {
+            throw new IOException("station code index is truncated");
+        }
+    }
+    /**
+     * 索引ファイルをメモリマップして開きます
+     *
+     * @param file 索引ファイルをセット
+     * @return StationCodeIndex 索引が戻ります
+     * @throws IOException
+     */
+    public static StationCodeIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StationCodeIndex(mapped);
+        } finally {
+            raf.close(); // マップはチャネルを閉じても有効
+        }
+    }
+    /**
+     * 駅コード表(CSV)から索引ファイルを作成します
+     *
+     * <pre>
+     * 1行1駅で "地域,線区,駅順,事業者名,線区名,駅名" の形式です。
+     * 地域/線区/駅順は10進数又は 0x付きの16進数で記述します。
+     * 空行と '#'で始まる行は無視します
+     * </pre>
+     *
+     * @param csv 駅コード表をセット
+     * @param out 出力する索引ファイルをセット
+     * @return int 登録した駅数が戻ります
+     * @throws IOException
+     */
+    public static int build(Reader csv, File out) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(csv);
+        String line;
+        int lineNo = 0;
+        while ( (line = reader.readLine()) != null ) {
+            lineNo++;
+            line = line.trim();
+            if ( line.length() == 0 || line.charAt(0) == '#' ) continue;
+            String[] cols = line.split(",", -1);
+            if ( cols.length < 6 ) {
+                throw new IOException("invalid station record at line " + lineNo);
+            }
+            rows.add(cols);
+        }
+        final int[] keys = new int[rows.size()];
+        Integer[] order = new Integer[rows.size()];
+        for ( int i = 0; i < keys.length; i++ ) {
+            String[] cols = rows.get(i);
+            keys[i] = toKey(parseCode(cols[0]), parseCode(cols[1]), parseCode(cols[2]));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int ka = keys[a], kb = keys[b];
+                return ka < kb ? -1 : (ka == kb ? 0 : 1);
+            }});
+
+        // 重複したキーは先勝ち
+        List<Integer> unique = new ArrayList<Integer>(order.length);
+        for ( Integer i : order ) {
+            if ( unique.isEmpty() || keys[unique.get(unique.size() - 1)] != keys[i] ) {
+                unique.add(i);
+            }
+        }
+
+        int n = unique.size();
+        byte[][] strings = new byte[n * 3][];
+        int poolSize = 0;
+        for ( int i = 0; i < n; i++ ) {
+            String[] cols = rows.get(unique.get(i));
+            for ( int f = 0; f < 3; f++ ) {
+                strings[i * 3 + f] = cols[3 + f].trim().getBytes("UTF-8");
+                poolSize += strings[i * 3 + f].length;
+            }
+        }
+
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(out));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(n);
+            for ( int i = 0; i < n; i++ ) {
+                dos.writeInt(keys[unique.get(i)]);
+            }
+            int offset = 0;
+            for ( byte[] s : strings ) {
+                dos.writeInt(offset);
+                offset += s.length;
+            }
+            dos.writeInt(poolSize);
+            for ( byte[] s : strings ) {
+                dos.write(s);
+            }
+        } finally {
+            dos.close();
+        }
+        return n;
+    }
+    /**
+     * 登録されている駅数を取得します
+     * @return int 駅数が戻ります
+     */
+    public int size() {
+        return this.count;
+    }
+    /**
+     * 駅コードから索引上の位置を検索します
+     *
+     * @param area 地域コードをセット
+     * @param line 線区コードをセット
+     * @param station 駅順コードをセット
+     * @return int 索引上の位置が戻ります (見つからない場合は -1)
+     */
+    public int indexOf(int area, int line, int station) {
+        int key = toKey(area, line, station);
+        int low = 0;
+        int high = this.count - 1;
+        while ( low <= high ) {
+            int mid = (low + high) >>> 1;
+            int k = this.buffer.getInt(this.keyBase + mid * 4);
+            if ( k < key ) {
+                low = mid + 1;
+            } else if ( k > key ) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    /**
+     * 履歴の入場駅を検索します
+     *
+     * @param batch 履歴のバッチをセット
+     * @param i レコードのインデックスをセット
+     * @return int 索引上の位置が戻ります (見つからない場合は -1)
+     */
+    public int indexOfInStation(SuicaHistoryBatch batch, int i) {
+        return this.indexOf((batch.region[i] >> 6) & 0x03, batch.inLine[i], batch.inStation[i]);
+    }
+    /**
+     * 履歴の出場駅を検索します
+     *
+     * @param batch 履歴のバッチをセット
+     * @param i レコードのインデックスをセット
+     * @return int 索引上の位置が戻ります (見つからない場合は -1)
+     */
+    public int indexOfOutStation(SuicaHistoryBatch batch, int i) {
+        return this.indexOf((batch.region[i] >> 4) & 0x03, batch.outLine[i], batch.outStation[i]);
+    }
+    /**
+     * 索引上の位置の駅コードを取得します
+     *
+     * @param index 索引上の位置をセット
+     * @return int 地域 << 16 | 線区 << 8 | 駅順 形式の駅コードが戻ります
+     */
+    public int getKey(int index) {
+        return this.buffer.getInt(this.keyBase + index * 4);
+    }
+    /**
+     * 駅名を取得します
+     * @param index 索引上の位置をセット
+     * @return String 駅名が戻ります
+     */
+    public String getStationName(int index) {
+        return this.getString(index, FIELD_STATION);
+    }
+    /**
+     * 線区名を取得します
+     * @param index 索引上の位置をセット
+     * @return String 線区名が戻ります
+     */
+    public String getLineName(int index) {
+        return this.getString(index, FIELD_LINE);
+    }
+    /**
+     * 事業者名を取得します
+     * @param index 索引上の位置をセット
+     * @return String 事業者名が戻ります
+     */
+    public String getCompanyName(int index) {
+        return this.getString(index, FIELD_COMPANY);
+    }
+    /**
+     * 文字列項目を取得します
+     *
+     * @param index 索引上の位置をセット
+     * @param field FIELD_COMPANY, FIELD_LINE, FIELD_STATIONのいずれかをセット
+     * @return String 文字列が戻ります (位置が不正な場合は null)
+     */
+    public String getString(int index, int field) {
+        if ( index < 0 || index >= this.count ) return null;
+        int slot = this.offsetBase + (index * 3 + field) * 4;
+        int start = this.buffer.getInt(slot);
+        int end = this.buffer.getInt(slot + 4);
+        byte[] bytes = new byte[end - start];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = this.buffer.get(this.poolBase + start + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    /**
+     * 駅コードをキーに変換します
+     */
+    static int toKey(int area, int line, int station) {
+        return (area & 0xff) << 16 | (line & 0xff) << 8 | (station & 0xff);
+    }
+    /**
+     * 10進数又は16進数の駅コードを解析します
+     */
+    static int parseCode(String s) throws IOException {
+        s = s.trim();
+        try {
+            if ( s.startsWith("0x") || s.startsWith("0X") ) {
+                return Integer.parseInt(s.substring(2), 16);
+            }
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid station code : " + s);
+        }
+    }
+}
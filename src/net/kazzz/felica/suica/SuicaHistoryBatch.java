@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.suica;
+
+import java.util.Arrays;
+
+/**
+ * Suica/PASMOの利用履歴を列指向(プリミティブ配列)で保持するバッチクラスを提供します
+ *
+ * <pre>
+ * 1レコード毎にオブジェクトを生成せず、各項目を並行する配列に格納します。
+ * i番目のレコードは各配列の i番目の要素で表現されます。
+ * バッチは clear()して再利用することを想定しています
+ *
+ * 物販(処理種別 0x46等)のレコードでは inLine/inStationに時刻、
+ * outLine/outStationに端末IDの上位/下位がそのまま格納されます
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/14
+ * @since Android API Level 9
+ *
+ */
+
+public final class SuicaHistoryBatch {
+    /** 機器種別 */
+    public short[] terminalType;
+    /** 利用種別(処理種別) */
+    public short[] processType;
+    /** 日付 (yyyyMMdd形式の整数) */
+    public int[] date;
+    /** 入場線区コード */
+    public short[] inLine;
+    /** 入場駅順コード */
+    public short[] inStation;
+    /** 出場線区コード */
+    public short[] outLine;
+    /** 出場駅順コード */
+    public short[] outStation;
+    /** 残額 */
+    public int[] balance;
+    /** 連番 */
+    public int[] sequence;
+    /** 地域コード */
+    public short[] region;
+
+    private int size;
+
+    /**
+     * コンストラクタ
+     * @param capacity 初期容量(レコード数)をセット
+     */
+    public SuicaHistoryBatch(int capacity) {
+        this.allocate(capacity);
+    }
+    /**
+     * 格納されているレコード数を取得します
+     * @return int レコード数が戻ります
+     */
+    public int size() {
+        return this.size;
+    }
+    /**
+     * 容量(レコード数)を取得します
+     * @return int 容量が戻ります
+     */
+    public int capacity() {
+        return this.date.length;
+    }
+    /**
+     * 格納されたレコードを破棄します (配列は再利用されます)
+     */
+    public void clear() {
+        this.size = 0;
+    }
+    /**
+     * 指定したレコード数を格納できるように容量を拡張します
+     * @param minCapacity 必要なレコード数をセット
+     */
+    public void ensureCapacity(int minCapacity) {
+        if ( minCapacity <= this.capacity() ) return;
+        int newCapacity = Math.max(minCapacity, this.capacity() * 2);
+        this.terminalType = Arrays.copyOf(this.terminalType, newCapacity);
+        this.processType = Arrays.copyOf(this.processType, newCapacity);
+        this.date = Arrays.copyOf(this.date, newCapacity);
+        this.inLine = Arrays.copyOf(this.inLine, newCapacity);
+        this.inStation = Arrays.copyOf(this.inStation, newCapacity);
+        this.outLine = Arrays.copyOf(this.outLine, newCapacity);
+        this.outStation = Arrays.copyOf(this.outStation, newCapacity);
+        this.balance = Arrays.copyOf(this.balance, newCapacity);
+        this.sequence = Arrays.copyOf(this.sequence, newCapacity);
+        this.region = Arrays.copyOf(this.region, newCapacity);
+    }
+    /**
+     * レコード数を減らします (読み込みに失敗した場合に追加したレコードを取り消します)
+     * @param newSize 新しいレコード数をセット
+     */
+    void truncate(int newSize) {
+        if ( newSize < 0 || newSize > this.size ) {
+            throw new IllegalArgumentException("size : " + newSize);
+        }
+        this.size = newSize;
+    }
+    /**
+     * 次に書きこむレコードの位置を確保します
+     * @return int 確保したレコードのインデックスが戻ります
+     */
+    int next() {
+        this.ensureCapacity(this.size + 1);
+        return this.size++;
+    }
+    /**
+     * 各列の配列を確保します
+     */
+    private void allocate(int capacity) {
+        this.terminalType = new short[capacity];
+        this.processType = new short[capacity];
+        this.date = new int[capacity];
+        this.inLine = new short[capacity];
+        this.inStation = new short[capacity];
+        this.outLine = new short[capacity];
+        this.outStation = new short[capacity];
+        this.balance = new int[capacity];
+        this.sequence = new int[capacity];
+        this.region = new short[capacity];
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SuicaHistoryBatch (" + this.size + " records)\n");
+        for ( int i = 0; i < this.size; i++ ) {
+            sb.append("  [").append(i).append("]")
+              .append(" 機器種別:").append(this.terminalType[i])
+              .append(" 利用種別:").append(this.processType[i])
+              .append(" 日付:").append(this.date[i])
+              .append(" 入:").append(this.inLine[i]).append('-').append(this.inStation[i])
+              .append(" 出:").append(this.outLine[i]).append('-').append(this.outStation[i])
+              .append(" 残額:").append(this.balance[i])
+              .append(" 連番:").append(this.sequence[i])
+              .append(" 地域:").append(this.region[i]).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.suica;
+
+import static net.kazzz.felica.lib.Util.getU16LE;
+import static net.kazzz.felica.lib.Util.getU24;
+import static net.kazzz.felica.lib.Util.getU8;
+import net.kazzz.felica.command.ReadResponse;
+
+/**
+ * Suica/PASMOの利用履歴ブロック(SERVICE_SUICA_HISTORY)をデコードするクラスを提供します
+ *
+ * <pre>
+ * 履歴ブロック(16バイト)のレイアウト
+ *  0     : 機器種別
+ *  1     : 利用種別
+ *  2     : 支払種別
+ *  3     : 入出場種別
+ *  4-5   : 日付 (年7bit 月4bit 日5bit, big endian)
+ *  6-7   : 入場線区/駅順 (物販の場合は時刻)
+ *  8-9   : 出場線区/駅順 (物販の場合は端末ID)
+ *  10-11 : 残額 (little endian)
+ *  12-14 : 連番 (big endian)
+ *  15    : 地域コード
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/14
+ * @since Android API Level 9
+ *
+ */
+
+public final class SuicaHistoryDecoder {
+    /** 履歴ブロックのサイズ */
+    public static final int BLOCK_SIZE = 16;
+
+    private SuicaHistoryDecoder() {}
+    /**
+     * 読み込んだ履歴ブロックをデコードしてバッチに追加します
+     *
+     * @param response 履歴サービスの読み込み結果をセット
+     * @param out 出力先のバッチをセット
+     * @return int 追加したレコード数が戻ります
+     */
+    public static int decode(ReadResponse response, SuicaHistoryBatch out) {
+        byte[] blockData = response.getBlockData();
+        if ( blockData == null ) return 0;
+        return decode(blockData, 0, blockData.length / BLOCK_SIZE, out);
+    }
+    /**
+     * 履歴ブロックの並びをデコードしてバッチに追加します
+     *
+     * <pre>
+     * 未使用(全て0)のブロックは読み飛ばします
+     * </pre>
+     *
+     * @param blockData 履歴ブロックが連続して格納されたバイト列をセット
+     * @param offset 先頭ブロックのオフセットをセット
+     * @param blockCount デコードするブロック数をセット
+     * @param out 出力先のバッチをセット
+     * @return int 追加したレコード数が戻ります
+     */
+    public static int decode(byte[] blockData, int offset, int blockCount, SuicaHistoryBatch out) {
+        out.ensureCapacity(out.size() + blockCount);
+        int added = 0;
+        for ( int n = 0; n < blockCount; n++ ) {
+            if ( decodeBlock(blockData, offset + n * BLOCK_SIZE, out) ) added++;
+        }
+        return added;
+    }
+    /**
+     * 履歴ブロックを1件デコードしてバッチに追加します
+     *
+     * @param b 履歴ブロックが格納されたバイト列をセット
+     * @param p ブロックのオフセットをセット
+     * @param out 出力先のバッチをセット
+     * @return boolean 追加した場合 trueが戻ります (未使用ブロックの場合 false)
+     */
+    public static boolean decodeBlock(byte[] b, int p, SuicaHistoryBatch out) {
+        if ( b[p] == 0 && b[p + 1] == 0 && b[p + 4] == 0 && b[p + 5] == 0 ) {
+            return false; // 未使用ブロック
+        }
+        int i = out.next();
+        out.terminalType[i] = (short) getU8(b, p);
+        out.processType[i] = (short) getU8(b, p + 1);
+        out.date[i] = toDate(b[p + 4], b[p + 5]);
+        out.inLine[i] = (short) getU8(b, p + 6);
+        out.inStation[i] = (short) getU8(b, p + 7);
+        out.outLine[i] = (short) getU8(b, p + 8);
+        out.outStation[i] = (short) getU8(b, p + 9);
+        out.balance[i] = getU16LE(b, p + 10);
+        out.sequence[i] = getU24(b, p + 12);
+        out.region[i] = (short) getU8(b, p + 15);
+        return true;
+    }
+    /**
+     * 履歴ブロックの連番だけを取得します
+     *
+     * @param b 履歴ブロックが格納されたバイト列をセット
+     * @param p ブロックのオフセットをセット
+     * @return int 連番が戻ります
+     */
+    public static int sequenceOf(byte[] b, int p) {
+        return getU24(b, p + 12);
+    }
+    /**
+     * 日付フィールド(2バイト)を yyyyMMdd形式の整数に変換します
+     *
+     * @param hi 上位バイトをセット
+     * @param lo 下位バイトをセット
+     * @return int yyyyMMdd形式の日付が戻ります
+     */
+    public static int toDate(byte hi, byte lo) {
+        int year = 2000 + ((hi & 0xff) >> 1);
+        int month = ((hi & 0x01) << 3) | ((lo & 0xff) >> 5);
+        int day = lo & 0x1f;
+        return year * 10000 + month * 100 + day;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.felica.suica;
+
+import static net.kazzz.felica.lib.FeliCaLib.SERVICE_SUICA_HISTORY;
+import net.kazzz.felica.FeliCaException;
+import net.kazzz.felica.FeliCaTag;
+import net.kazzz.felica.command.ReadResponse;
+import net.kazzz.felica.lib.FeliCaLib.IDm;
+import net.kazzz.felica.lib.FeliCaLib.ServiceCode;
+
+/**
+ * Suica/PASMOの利用履歴を差分だけ読み込むクラスを提供します
+ *
+ * <pre>
+ * 履歴はサイクリックサービスで、ブロック0に最新のレコードが格納されます。
+ * IDm毎に前回読み込んだ最新レコードの連番を覚えておき、その連番に到達した時点で
+ * 読み込みを止めるので、新しいレコードの分だけ通信すれば済みます。
+ * 1回目の読み込みは少ないブロック数で行い、続きがある場合は読み込むブロック数を増やします
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/16
+ * @since Android API Level 9
+ *
+ */
+
+public class SuicaHistoryReader {
+    /** 履歴サービスに格納されるレコード数 */
+    public static final int MAX_HISTORY = 20;
+
+    static final ServiceCode HISTORY = ServiceCode.valueOf(SERVICE_SUICA_HISTORY);
+
+    protected final FeliCaTag tag;
+    protected final SequenceWatermarkStore store;
+    protected int initialBlocksPerRead = 2;
+    protected int maxBlocksPerRead = 4;
+
+    /**
+     * コンストラクタ
+     *
+     * @param tag ポーリング済みのFeliCaタグをセット
+     * @param store ウォーターマークのストアをセット
+     */
+    public SuicaHistoryReader(FeliCaTag tag, SequenceWatermarkStore store) {
+        this.tag = tag;
+        this.store = store;
+    }
+    /**
+     * 一度の Readで読み込むブロック数をセットします
+     *
+     * @param initial 最初の Readで読み込むブロック数をセット
+     * @param max 以降の Readで読み込む最大ブロック数をセット (カードが許容する範囲で)
+     */
+    public void setBlocksPerRead(int initial, int max) {
+        if ( initial < 1 || max < initial || max > 15 ) {
+            throw new IllegalArgumentException("blocks per read must be 1 <= initial <= max <= 15");
+        }
+        this.initialBlocksPerRead = initial;
+        this.maxBlocksPerRead = max;
+    }
+    /**
+     * 前回の読み込み以降に追加された履歴を読み込んでバッチに追加します
+     *
+     * <pre>
+     * 既知のレコードか未使用ブロックに到達するか、全てのブロックを読み込んだ場合だけ
+     * 最新レコードの連番をウォーターマークとして記録します。
+     * カードがエラーを戻した場合は読み込むブロック数を減らして再試行し、1ブロックでも
+     * 読み込めない場合はバッチを呼び出し前の状態に戻し、ウォーターマークを更新せずに
+     * FeliCaExceptionをスローします (次回は同じレコードを新しいレコードとして読み直します)。
+     * 新しい順 (ブロック0から)にバッチに追加されます
+     * </pre>
+     *
+     * @param out 出力先のバッチをセット
+     * @return int 追加した新しいレコード数が戻ります
+     * @throws FeliCaException 履歴を最後まで読み込めなかった場合にスローされます
+     */
+    public int readNew(SuicaHistoryBatch out) throws FeliCaException {
+        IDm idm = this.tag.getIDm();
+        if ( idm == null ) {
+            throw new FeliCaException("IDm is null. execute polling before reading history");
+        }
+        int watermark = this.store.get(idm);
+        int newest = SequenceWatermarkStore.NONE;
+        int added = 0;
+        int block = 0;
+        int chunk = this.initialBlocksPerRead;
+        int start = out.size();
+        boolean completed = false;
+        try {
+            reading:
+            while ( block < MAX_HISTORY ) {
+                int n = Math.min(chunk, MAX_HISTORY - block);
+                byte[] addrs = new byte[n];
+                for ( int i = 0; i < n; i++ ) {
+                    addrs[i] = (byte) (block + i);
+                }
+                ReadResponse r = this.tag.readBlocksWithoutEncryption(HISTORY, addrs);
+                byte[] data = r.getBlockData();
+                int count = r.getStatusFlag1() != 0 || data == null
+                    ? 0 : Math.min(r.getBlockCount(), data.length / SuicaHistoryDecoder.BLOCK_SIZE);
+                if ( count == 0 ) {
+                    if ( n == 1 ) {
+                        throw new FeliCaException("can't read Suica history block " + block 
+                                + ". statusFlag2 : " + r.getStatusFlag2());
+                    }
+                    chunk = n / 2; // カードが許容するブロック数を超えた可能性がある
+                    continue;
+                }
+                for ( int i = 0; i < count; i++ ) {
+                    int p = i * SuicaHistoryDecoder.BLOCK_SIZE;
+                    int sequence = SuicaHistoryDecoder.sequenceOf(data, p);
+                    if ( sequence == watermark 
+                            || !SuicaHistoryDecoder.decodeBlock(data, p, out) ) { // 既知のレコードか未使用ブロック
+                        break reading;
+                    }
+                    if ( newest == SequenceWatermarkStore.NONE ) newest = sequence;
+                    added++;
+                }
+                block += count;
+                chunk = count < n ? count : Math.min(chunk * 2, this.maxBlocksPerRead);
+            }
+            completed = true;
+        } finally {
+            if ( !completed ) {
+                out.truncate(start); // 一部だけ読み込んだ履歴は戻さない
+            }
+        }
+        if ( newest != SequenceWatermarkStore.NONE ) {
+            this.store.put(idm, newest);
+        }
+        return added;
+    }
+}
@@ -12,8 +12,8 @@
 package net.kazzz.util;
 
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 /**
@@ -27,6 +27,11 @@ import java.util.List;
 public final class ArrayUtil {
     /**
      * 配列にオブジェクトを追加します。
+     * 
+     * <pre>
+     * 呼び出し毎に配列を再生成します。繰り返し追加する場合は ArrayList
+     * またはプリミティブ型の IntArrayBuilder等を使用してください
+     * </pre>
      * @param <T>
      * 
      * @param array 対象の配列をセット
@@ -140,6 +145,60 @@ public final class ArrayUtil {
         return -1;
     }
 
+    /**
+     * byte配列中の値のindexを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列中の値のindex (含まれていない場合は -1)
+     */
+    public static final int indexOf(byte[] array, byte value) {
+        if (array != null) {
+            for (int i = 0; i < array.length; ++i) {
+                if (array[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * int配列中の値のindexを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列中の値のindex (含まれていない場合は -1)
+     */
+    public static final int indexOf(int[] array, int value) {
+        if (array != null) {
+            for (int i = 0; i < array.length; ++i) {
+                if (array[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * long配列中の値のindexを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列中の値のindex (含まれていない場合は -1)
+     */
+    public static final int indexOf(long[] array, long value) {
+        if (array != null) {
+            for (int i = 0; i < array.length; ++i) {
+                if (array[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
     /**
      * 配列中から対象のオブジェクトを削除します。
      * 
@@ -165,6 +224,60 @@ public final class ArrayUtil {
         return newArray;
     }
 
+    /**
+     * byte配列中から最初に見つかった値を削除します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 削除後の配列が戻ります (含まれていない場合は元の配列)
+     */
+    public static final byte[] remove(byte[] array, byte value) {
+        int index = indexOf(array, value);
+        if (index < 0) {
+            return array;
+        }
+        byte[] newArray = new byte[array.length - 1];
+        System.arraycopy(array, 0, newArray, 0, index);
+        System.arraycopy(array, index + 1, newArray, index, newArray.length - index);
+        return newArray;
+    }
+
+    /**
+     * int配列中から最初に見つかった値を削除します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 削除後の配列が戻ります (含まれていない場合は元の配列)
+     */
+    public static final int[] remove(int[] array, int value) {
+        int index = indexOf(array, value);
+        if (index < 0) {
+            return array;
+        }
+        int[] newArray = new int[array.length - 1];
+        System.arraycopy(array, 0, newArray, 0, index);
+        System.arraycopy(array, index + 1, newArray, index, newArray.length - index);
+        return newArray;
+    }
+
+    /**
+     * long配列中から最初に見つかった値を削除します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 削除後の配列が戻ります (含まれていない場合は元の配列)
+     */
+    public static final long[] remove(long[] array, long value) {
+        int index = indexOf(array, value);
+        if (index < 0) {
+            return array;
+        }
+        long[] newArray = new long[array.length - 1];
+        System.arraycopy(array, 0, newArray, 0, index);
+        System.arraycopy(array, index + 1, newArray, index, newArray.length - index);
+        return newArray;
+    }
+
     /**
      * 配列が空かどうかを検査します
      *   
@@ -207,6 +320,36 @@ public final class ArrayUtil {
     public static final boolean contains(char[] array, char ch) {
         return -1 < indexOf(array, ch);
     }
+    /**
+     * byte配列に値が含まれているかどうかを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列に値が含まれている場合trueが戻ります
+     */
+    public static final boolean contains(byte[] array, byte value) {
+        return -1 < indexOf(array, value);
+    }
+    /**
+     * int配列に値が含まれているかどうかを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列に値が含まれている場合trueが戻ります
+     */
+    public static final boolean contains(int[] array, int value) {
+        return -1 < indexOf(array, value);
+    }
+    /**
+     * long配列に値が含まれているかどうかを返します。
+     * 
+     * @param array 対象の配列をセット
+     * @param value 対象の値をセット
+     * @return 配列に値が含まれている場合trueが戻ります
+     */
+    public static final boolean contains(long[] array, long value) {
+        return -1 < indexOf(array, value);
+    }
 
     /**
      * 順番は無視して2つの配列が等しいかどうかを返します。
@@ -289,24 +432,84 @@ public final class ArrayUtil {
         return includes;
     }
     /**
-     * 文字列配列の要素から重複を削除します
+     * 配列の要素から重複を削除します (最初に現れた要素の順序を保持します)
      * @param array 配列をセット
      * @return T[] トリム後の配列が戻ります
      */
     public static final <T> T[] truncate(final T[] array) {
-        final ArrayList<T> list = new ArrayList<T>(array.length);
-        T[] includes = FinderUtil.findAll(array, 
-                new IPredicate<T>(){
-                    @Override
-                    public boolean evaluate(T input) {
-                        if ( list.contains(input) ) {
-                            return false;
-                        } else {
-                            list.add(input);
-                            return true;
-                        }
-                    }});
-        return includes;
+        LinkedHashSet<T> set = new LinkedHashSet<T>(Math.max(16, array.length * 4 / 3 + 1));
+        for ( T t : array ) {
+            set.add(t);
+        }
+        if ( set.size() == array.length ) {
+            return array.clone();
+        }
+        return set.toArray(copyOf(array, set.size()));
+    }
+    /**
+     * int配列の要素から重複を削除します (最初に現れた要素の順序を保持します)
+     * @param array 配列をセット
+     * @return int[] トリム後の配列が戻ります
+     */
+    public static final int[] truncate(final int[] array) {
+        int mask = tableSize(array.length) - 1;
+        int[] table = new int[mask + 1];
+        boolean[] used = new boolean[mask + 1];
+        int[] result = new int[array.length];
+        int size = 0;
+        for ( int v : array ) {
+            int h = mix(v) & mask;
+            while ( used[h] && table[h] != v ) {
+                h = (h + 1) & mask;
+            }
+            if ( !used[h] ) {
+                used[h] = true;
+                table[h] = v;
+                result[size++] = v;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+    /**
+     * long配列の要素から重複を削除します (最初に現れた要素の順序を保持します)
+     * @param array 配列をセット
+     * @return long[] トリム後の配列が戻ります
+     */
+    public static final long[] truncate(final long[] array) {
+        int mask = tableSize(array.length) - 1;
+        long[] table = new long[mask + 1];
+        boolean[] used = new boolean[mask + 1];
+        long[] result = new long[array.length];
+        int size = 0;
+        for ( long v : array ) {
+            int h = mix((int)(v ^ (v >>> 32))) & mask;
+            while ( used[h] && table[h] != v ) {
+                h = (h + 1) & mask;
+            }
+            if ( !used[h] ) {
+                used[h] = true;
+                table[h] = v;
+                result[size++] = v;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+    /**
+     * 要素数に対して充填率が1/2以下になる2のべき乗のテーブルサイズを取得します
+     */
+    private static int tableSize(int count) {
+        int size = 16;
+        while ( size < count * 2 ) {
+            size <<= 1;
+        }
+        return size;
+    }
+    /**
+     * 連番の値がテーブル上で偏らないようにハッシュ値を攪拌します
+     */
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
     }
     /**
      * 配列の要素数を変えてコピーします
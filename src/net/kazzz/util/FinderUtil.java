@@ -13,12 +13,17 @@
 package net.kazzz.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -31,6 +36,8 @@ import java.util.Map.Entry;
  */
 
 public final class FinderUtil {
+    /** 並列検索で1タスクが受け持つ要素数の既定値 (これ未満の場合は逐次検索します) */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
     
     /**
      * 配列中から条件に合う要素を抽出します
@@ -108,7 +115,6 @@ public final class FinderUtil {
             T t = i.next();
             if ( match.evaluate(t) ){
                 temp.add(t);
-                break;
             }
         }
         return temp;
@@ -146,7 +152,193 @@ public final class FinderUtil {
             T t = list.get(i);
             if ( match.evaluate(t) ){
                 temp.add(t);
-                break;
+            }
+        }
+        return temp;
+    }
+    
+    /**
+     * 配列中に条件に合う要素があるかどうかを検査します (最初に見つかった時点で終了します)
+     * @param <T> 任意の型を指定します
+     * @param array <T>型の配列をセット
+     * @param match 述語論理インタフェースをセットします
+     * @return boolean 条件に合う要素がある場合 trueが戻ります
+     */
+    public static final <T> boolean anyMatch(T[] array, IPredicate<T> match) {
+        return -1 < indexOf(array, match);
+    }
+    /**
+     * コレクション中に条件に合う要素があるかどうかを検査します (最初に見つかった時点で終了します)
+     * @param <T> 任意の型を指定します
+     * @param list <T>型のコレクションをセット
+     * @param match 述語論理インタフェースをセットします
+     * @return boolean 条件に合う要素がある場合 trueが戻ります
+     */
+    public static final <T> boolean anyMatch(Collection<T> list, IPredicate<T> match) {
+        for ( T t : list ) {
+            if ( match.evaluate(t) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * 配列中から条件に合う最初の要素の位置を取得します
+     * 
+     * <pre>
+     * find()は要素そのものを戻すため、null要素が見つかった場合と見つからなかった場合を
+     * 区別できません。その場合はこのメソッドを使用してください
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param array <T>型の配列をセット
+     * @param match 述語論理インタフェースをセットします
+     * @return int 見つかった要素の位置が戻ります (見つからない場合は -1)
+     */
+    public static final <T> int indexOf(T[] array, IPredicate<T> match) {
+        for (int i = 0; i < array.length; i++) {
+            if ( match.evaluate(array[i]) ){
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * リスト中から条件に合う最初の要素の位置を取得します
+     * @param <T> 任意の型を指定します
+     * @param list <T>型のリストをセット
+     * @param match 述語論理インタフェースをセットします
+     * @return int 見つかった要素の位置が戻ります (見つからない場合は -1)
+     */
+    public static final <T> int indexOf(List<T> list, IPredicate<T> match) {
+        int size = list.size();
+        for (int i = 0; i < size; i++ ) {
+            if ( match.evaluate(list.get(i)) ){
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * 配列中から条件に合う要素を並列に抽出して配列を取得します
+     * 
+     * <pre>
+     * 1タスクが受け持つ要素数は DEFAULT_PARALLEL_THRESHOLDです
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param array <T>型の配列をセット
+     * @param match 述語論理インタフェース(スレッドセーフ)をセットします
+     * @param executor 評価に使用する ExecutorServiceをセットします
+     * @return T[] 型の配列が戻ります
+     * @see #findAll(Object[], IPredicate, ExecutorService, int)
+     */
+    public static final <T> T[] findAll(T[] array, IPredicate<T> match, ExecutorService executor) {
+        return findAll(array, match, executor, DEFAULT_PARALLEL_THRESHOLD);
+    }
+    /**
+     * リストから条件に合う要素を並列に抽出してリストで取得します
+     * 
+     * <pre>
+     * 1タスクが受け持つ要素数は DEFAULT_PARALLEL_THRESHOLDです
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param list <T>型のリストをセット
+     * @param match 述語論理インタフェース(スレッドセーフ)をセットします
+     * @param executor 評価に使用する ExecutorServiceをセットします
+     * @return List<T> 型のリスト(ArrayListにキャストできます)が戻ります
+     * @see #findAll(List, IPredicate, ExecutorService, int)
+     */
+    public static final <T> List<T> findAll(List<T> list, IPredicate<T> match, ExecutorService executor) {
+        return findAll(list, match, executor, DEFAULT_PARALLEL_THRESHOLD);
+    }
+    /**
+     * 配列中から条件に合う要素を並列に抽出して配列を取得します
+     * 
+     * <pre>
+     * 配列を threshold以上の要素数のチャンクに分割し、executorで並列に評価します。
+     * 先頭のチャンクは呼び出したスレッドで評価します。結果の順序は元の配列の順序と同じです。
+     * 要素数が threshold未満の場合は逐次の findAll()と同じです。
+     * 述語はスレッドセーフである必要があります
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param array <T>型の配列をセット
+     * @param match 述語論理インタフェース(スレッドセーフ)をセットします
+     * @param executor 評価に使用する ExecutorServiceをセットします
+     * @param threshold 1タスクが受け持つ最小の要素数をセットします
+     * @return T[] 型の配列が戻ります
+     */
+    public static final <T> T[] findAll(T[] array, IPredicate<T> match
+            , ExecutorService executor, int threshold) {
+        List<T> temp = findAllParallel(Arrays.asList(array), match, executor, threshold);
+        return temp.toArray(ArrayUtil.copyOf(array, 0));
+    }
+    /**
+     * リストから条件に合う要素を並列に抽出してリストで取得します
+     * 
+     * <pre>
+     * findAll(T[], IPredicate, ExecutorService, int)と同様です。
+     * リストはランダムアクセスできる(RandomAccess)ものを想定しています
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param list <T>型のリストをセット
+     * @param match 述語論理インタフェース(スレッドセーフ)をセットします
+     * @param executor 評価に使用する ExecutorServiceをセットします
+     * @param threshold 1タスクが受け持つ最小の要素数をセットします
+     * @return List<T> 型のリスト(ArrayListにキャストできます)が戻ります
+     */
+    public static final <T> List<T> findAll(List<T> list, IPredicate<T> match
+            , ExecutorService executor, int threshold) {
+        return findAllParallel(list, match, executor, threshold);
+    }
+    
+    private static <T> ArrayList<T> findAllParallel(final List<T> list, final IPredicate<T> match
+            , ExecutorService executor, int threshold) {
+        if ( threshold < 1 ) {
+            throw new IllegalArgumentException("threshold : " + threshold);
+        }
+        int size = list.size();
+        int maxChunks = Runtime.getRuntime().availableProcessors() * 4;
+        int chunks = Math.min(size / threshold, maxChunks);
+        if ( chunks < 2 ) {
+            return findRange(list, match, 0, size);
+        }
+        int chunkSize = (size + chunks - 1) / chunks;
+        ArrayList<Future<ArrayList<T>>> futures = new ArrayList<Future<ArrayList<T>>>(chunks);
+        try {
+            for ( int from = chunkSize; from < size; from += chunkSize ) {
+                final int start = from;
+                final int end = Math.min(from + chunkSize, size);
+                futures.add(executor.submit(new Callable<ArrayList<T>>() {
+                    @Override
+                    public ArrayList<T> call() throws Exception {
+                        return findRange(list, match, start, end);
+                    }
+                }));
+            }
+            ArrayList<T> result = findRange(list, match, 0, Math.min(chunkSize, size));
+            for ( Future<ArrayList<T>> f : futures ) {
+                result.addAll(f.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("findAll interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if ( cause instanceof Error ) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            for ( Future<ArrayList<T>> f : futures ) {
+                f.cancel(true); // 完了済みのタスクには影響しません
+            }
+        }
+    }
+    private static <T> ArrayList<T> findRange(List<T> list, IPredicate<T> match, int from, int to) {
+        ArrayList<T> temp = new ArrayList<T>();
+        for (int i = from; i < to; i++ ) {
+            T t = list.get(i);
+            if ( match.evaluate(t) ){
+                temp.add(t);
             }
         }
         return temp;
@@ -154,6 +346,11 @@ public final class FinderUtil {
     
     /**
      * 辞書中からプレフィクスが含まれるエントリだけを列挙します
+     * 
+     * <pre>
+     * 呼び出し毎に辞書の全エントリを走査します。同じ辞書に対して繰り返し検索する場合は
+     * PrefixIndexを構築して使用してください
+     * </pre>
      * @param <TValue> マップ値の型パラメタ
      * @param dictionary 対象の辞書(マップ)
      * @param prefix プレフィクス文字列をセット
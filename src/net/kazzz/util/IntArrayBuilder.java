@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.util;
+
+import java.util.Arrays;
+
+/**
+ * intの可変長配列を構築するクラスを提供します
+ *
+ * <pre>
+ * 容量が不足した場合は倍に拡張するため、追加は償却定数時間で行われます。
+ * サービスコードやブロック番号の一覧などをボクシングせずに構築する用途を想定しています
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/19
+ * @since Android API Level 9
+ *
+ */
+
+public final class IntArrayBuilder {
+    private int[] values;
+    private int size;
+
+    /**
+     * デフォルトコンストラクタ
+     */
+    public IntArrayBuilder() {
+        this(16);
+    }
+    /**
+     * コンストラクタ
+     * @param capacity 初期容量をセット
+     */
+    public IntArrayBuilder(int capacity) {
+        if ( capacity < 0 ) {
+            throw new IllegalArgumentException("capacity : " + capacity);
+        }
+        this.values = new int[capacity];
+    }
+    /**
+     * 値を追加します
+     * @param value 追加する値をセット
+     * @return IntArrayBuilder このインスタンスが戻ります
+     */
+    public IntArrayBuilder add(int value) {
+        if ( this.size == this.values.length ) {
+            this.grow(this.size + 1);
+        }
+        this.values[this.size++] = value;
+        return this;
+    }
+    /**
+     * 配列の値をすべて追加します
+     * @param array 追加する配列をセット
+     * @return IntArrayBuilder このインスタンスが戻ります
+     */
+    public IntArrayBuilder addAll(int[] array) {
+        return this.addAll(array, 0, array.length);
+    }
+    /**
+     * 配列の一部を追加します
+     * @param array 追加する配列をセット
+     * @param offset 追加を開始するオフセットをセット
+     * @param length 追加する要素数をセット
+     * @return IntArrayBuilder このインスタンスが戻ります
+     */
+    public IntArrayBuilder addAll(int[] array, int offset, int length) {
+        this.ensureCapacity(this.size + length);
+        System.arraycopy(array, offset, this.values, this.size, length);
+        this.size += length;
+        return this;
+    }
+    /**
+     * 指定した位置の値を取得します
+     * @param index 位置をセット
+     * @return int 値が戻ります
+     */
+    public int get(int index) {
+        this.checkIndex(index);
+        return this.values[index];
+    }
+    /**
+     * 指定した位置の値を置き換えます
+     * @param index 位置をセット
+     * @param value 値をセット
+     */
+    public void set(int index, int value) {
+        this.checkIndex(index);
+        this.values[index] = value;
+    }
+    /**
+     * 値の位置を取得します
+     * @param value 探す値をセット
+     * @return int 最初に見つかった位置が戻ります (含まれていない場合は -1)
+     */
+    public int indexOf(int value) {
+        for ( int i = 0; i < this.size; i++ ) {
+            if ( this.values[i] == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * 値が含まれているかどうかを返します
+     * @param value 探す値をセット
+     * @return boolean 含まれている場合 trueが戻ります
+     */
+    public boolean contains(int value) {
+        return -1 < this.indexOf(value);
+    }
+    /**
+     * 格納されている要素数を取得します
+     * @return int 要素数が戻ります
+     */
+    public int size() {
+        return this.size;
+    }
+    /**
+     * 要素を破棄します (内部の配列は再利用されます)
+     */
+    public void clear() {
+        this.size = 0;
+    }
+    /**
+     * 指定した要素数を格納できるように容量を拡張します
+     * @param minCapacity 必要な要素数をセット
+     */
+    public void ensureCapacity(int minCapacity) {
+        if ( minCapacity > this.values.length ) {
+            this.grow(minCapacity);
+        }
+    }
+    /**
+     * 格納されている要素をコピーした配列を取得します
+     * @return int[] 要素数ちょうどの配列が戻ります
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for ( int i = 0; i < this.size; i++ ) {
+            if ( i > 0 ) sb.append(", ");
+            sb.append(this.values[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(minCapacity, Math.max(this.values.length * 2, 16));
+        this.values = Arrays.copyOf(this.values, newCapacity);
+    }
+    private void checkIndex(int index) {
+        if ( index < 0 || index >= this.size ) {
+            throw new IndexOutOfBoundsException("index : " + index + " size : " + this.size);
+        }
+    }
+}
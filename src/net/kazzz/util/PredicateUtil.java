@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 述語(IPredicate)を合成するユーティリティクラスです
+ * 
+ * <pre>
+ * 合成した述語は短絡評価します。構成する述語がスレッドセーフであれば
+ * 合成した述語もスレッドセーフです
+ * </pre>
+ *
+ * @author Kazzz
+ * @date 2011/03/19
+ * @since Android API Level 4
+ *
+ */
+
+public final class PredicateUtil {
+    
+    private PredicateUtil() {}
+
+    /**
+     * 両方の述語が真の場合に真となる述語を生成します
+     * @param <T> 任意の型を指定します
+     * @param first 先に評価する述語をセット
+     * @param second 後に評価する述語をセット
+     * @return IPredicate<T> 合成した述語が戻ります
+     */
+    public static final <T> IPredicate<T> and(final IPredicate<? super T> first
+            , final IPredicate<? super T> second) {
+        return new IPredicate<T>() {
+            @Override
+            public boolean evaluate(T input) {
+                return first.evaluate(input) && second.evaluate(input);
+            }
+        };
+    }
+    /**
+     * すべての述語が真の場合に真となる述語を生成します
+     * 
+     * <pre>
+     * 3つ以上の述語を合成する場合に使用します (要素は生成時に複製します)
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param predicates 評価する順に並べた述語のコレクションをセット
+     * @return IPredicate<T> 合成した述語が戻ります
+     */
+    public static final <T> IPredicate<T> and(
+            Collection<? extends IPredicate<? super T>> predicates) {
+        final List<IPredicate<? super T>> p = new ArrayList<IPredicate<? super T>>(predicates);
+        return new IPredicate<T>() {
+            @Override
+            public boolean evaluate(T input) {
+                for ( IPredicate<? super T> e : p ) {
+                    if ( !e.evaluate(input) ) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+    /**
+     * いずれかの述語が真の場合に真となる述語を生成します
+     * @param <T> 任意の型を指定します
+     * @param first 先に評価する述語をセット
+     * @param second 後に評価する述語をセット
+     * @return IPredicate<T> 合成した述語が戻ります
+     */
+    public static final <T> IPredicate<T> or(final IPredicate<? super T> first
+            , final IPredicate<? super T> second) {
+        return new IPredicate<T>() {
+            @Override
+            public boolean evaluate(T input) {
+                return first.evaluate(input) || second.evaluate(input);
+            }
+        };
+    }
+    /**
+     * いずれかの述語が真の場合に真となる述語を生成します
+     * 
+     * <pre>
+     * 3つ以上の述語を合成する場合に使用します (要素は生成時に複製します)
+     * </pre>
+     * @param <T> 任意の型を指定します
+     * @param predicates 評価する順に並べた述語のコレクションをセット
+     * @return IPredicate<T> 合成した述語が戻ります
+     */
+    public static final <T> IPredicate<T> or(
+            Collection<? extends IPredicate<? super T>> predicates) {
+        final List<IPredicate<? super T>> p = new ArrayList<IPredicate<? super T>>(predicates);
+        return new IPredicate<T>() {
+            @Override
+            public boolean evaluate(T input) {
+                for ( IPredicate<? super T> e : p ) {
+                    if ( e.evaluate(input) ) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+    /**
+     * 述語を否定した述語を生成します
+     * @param <T> 任意の型を指定します
+     * @param predicate 述語をセット
+     * @return IPredicate<T> 否定した述語が戻ります
+     */
+    public static final <T> IPredicate<T> negate(final IPredicate<? super T> predicate) {
+        return new IPredicate<T>() {
+            @Override
+            public boolean evaluate(T input) {
+                return !predicate.evaluate(input);
+            }
+        };
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kazzz.util;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * 辞書のキーをプレフィクスで検索するための不変のインデックスを提供します
+ * 
+ * <pre>
+ * FinderUtil.findKeysWithPrefix()と同じ形のキーを検索します。
+ * 
+ *   prefix と一致するキー、および prefix + "." または prefix + "[" で始まるキー
+ * 
+ * キーは構築時に一度だけ小文字に変換(case-fold)してソートしておくため、
+ * 検索は二分探索と一致したエントリの列挙だけで済みます。検索するプレフィクスも
+ * 小文字に変換して比較するため、大文字小文字を区別しません。
+ * 
+ * FinderUtil.findKeysWithPrefix()とは大文字小文字の扱いが異なります。
+ * FinderUtilは prefixと一致するキーを大文字小文字を区別して検索し、prefixは小文字に変換しません。
+ * このインデックスは一致するキーも含めて、常に大文字小文字を区別しません。
+ * 構築後に元の辞書を変更しても、インデックスには反映されません
+ * </pre>
+ * 
+ * @param <TValue> 辞書の値の型パラメタ
+ * 
+ * @author Kazzz
+ * @date 2011/03/19
+ * @since Android API Level 9
+ *
+ */
+
+public final class PrefixIndex<TValue> {
+    private final String[] foldedKeys;
+    private final Entry<String, TValue>[] entries;
+
+    /**
+     * コンストラクタ
+     * @param dictionary インデックスを構築する辞書をセット
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PrefixIndex(Map<String, TValue> dictionary) {
+        int size = dictionary.size();
+        final String[] folded = new String[size];
+        Entry<String, TValue>[] source = new Entry[size];
+        Integer[] order = new Integer[size];
+        int n = 0;
+        for ( Entry<String, TValue> e : dictionary.entrySet() ) {
+            source[n] = new SimpleImmutableEntry<String, TValue>(e.getKey(), e.getValue());
+            folded[n] = e.getKey().toLowerCase();
+            order[n] = n;
+            n++;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return folded[a].compareTo(folded[b]);
+            }
+        });
+        this.foldedKeys = new String[size];
+        this.entries = new Entry[size];
+        for ( int i = 0; i < size; i++ ) {
+            this.foldedKeys[i] = folded[order[i]];
+            this.entries[i] = source[order[i]];
+        }
+    }
+    /**
+     * プレフィクスに一致するエントリを列挙します
+     * 
+     * <pre>
+     * エントリはインデックスが保持しているものをそのまま戻します (コピーしません)
+     * </pre>
+     * @param prefix プレフィクス文字列をセット
+     * @return Iterator<Entry<String, TValue>> エントリのイテレータが戻ります
+     */
+    public Iterator<Entry<String, TValue>> findKeysWithPrefix(String prefix) {
+        String p = prefix.toLowerCase();
+        int exactFrom = lowerBound(p);
+        int exactTo = upperBound(p, exactFrom);
+        // '.' '[' の次の文字 '/' '\' を上限として範囲を求める
+        int dotFrom = lowerBound(p + '.');
+        int dotTo = lowerBound(p + '/');
+        int bracketFrom = lowerBound(p + '[');
+        int bracketTo = lowerBound(p + '\\');
+        return new RangeIterator(new int[] {
+                exactFrom, exactTo, dotFrom, dotTo, bracketFrom, bracketTo });
+    }
+    /**
+     * プレフィクスに対して少なくとも一つのエントリが含まれているかどうかを検査します
+     * @param prefix プレフィクスをセット
+     * @return boolean 含まれている場合はtrueが戻ります
+     */
+    public boolean doesAnyKeyHavePrefix(String prefix) {
+        String p = prefix.toLowerCase();
+        int i = lowerBound(p);
+        if ( i < this.foldedKeys.length && this.foldedKeys[i].equals(p) ) {
+            return true;
+        }
+        return lowerBound(p + '.') < lowerBound(p + '/')
+            || lowerBound(p + '[') < lowerBound(p + '\\');
+    }
+    /**
+     * インデックスされているエントリ数を取得します
+     * @return int エントリ数が戻ります
+     */
+    public int size() {
+        return this.entries.length;
+    }
+
+    /**
+     * key以上となる最初の位置を取得します
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = this.foldedKeys.length;
+        while ( low < high ) {
+            int mid = (low + high) >>> 1;
+            if ( this.foldedKeys[mid].compareTo(key) < 0 ) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    /**
+     * fromから keyと等しいキーが続く範囲の終端を取得します
+     */
+    private int upperBound(String key, int from) {
+        int i = from;
+        while ( i < this.foldedKeys.length && this.foldedKeys[i].equals(key) ) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 複数の [from, to) 範囲を順に列挙するイテレータ
+     */
+    private final class RangeIterator implements Iterator<Entry<String, TValue>> {
+        private final int[] ranges;
+        private int range;
+        private int next;
+
+        RangeIterator(int[] ranges) {
+            this.ranges = ranges;
+            this.next = ranges[0];
+            this.skipEmpty();
+        }
+        @Override
+        public boolean hasNext() {
+            return this.range < this.ranges.length;
+        }
+        @Override
+        public Entry<String, TValue> next() {
+            if ( !this.hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            Entry<String, TValue> e = entries[this.next++];
+            this.skipEmpty();
+            return e;
+        }
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        private void skipEmpty() {
+            while ( this.range < this.ranges.length && this.next >= this.ranges[this.range + 1] ) {
+                this.range += 2;
+                if ( this.range < this.ranges.length ) {
+                    this.next = this.ranges[this.range];
+                }
+            }
+        }
+    }
+}